@@ -0,0 +1,77 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import utils.Environment;
+import utils.InstanceGenerator;
+import utils.MatrixHelper;
+import utils.RandomStream;
+import utils.SAA;
+import utils.Triple;
+
+/**
+ * The instance shared by the benchmarks: a synthetic instance of the given
+ * size (see InstanceGenerator), N step one samples and two selections to
+ * alternate between.
+ *
+ * The benchmarks are compiled against the classes of src/ with jmh-core and
+ * the jmh-generator-annprocess annotation processor on the class path, and
+ * run with
+ *
+ *     java -cp <classes>:<jmh jars>:<cplex.jar> -Djava.library.path=<cplex bin> \
+ *         org.openjdk.jmh.Main -prof gc
+ *
+ * where -prof gc adds the allocation rate (gc.alloc.rate.norm, bytes per
+ * operation) to the average time of every benchmark.
+ * @author Zhao Feng
+ *
+ */
+@State(Scope.Benchmark)
+public class BenchmarkInstance {
+	private static final long SEED = 1;   // of the samples
+
+	@Param({"40", "200", "1000"})
+	public int cities;
+
+	@Param({"6", "20"})
+	public int facilities;
+
+	@Param({"10", "50"})
+	public int N;
+
+	public Triple[] samples;
+	public double[][] udc;   // two selections, every DC/RC used and every other one used
+	public double[][] urc;
+
+	@Setup(Level.Trial)
+	public void setUp(){
+		Environment.nCustomers = cities;
+		Environment.nDC = Environment.nRC = facilities;
+		InstanceGenerator.generate(1, cities, facilities);
+		Environment.PPDensitySum = MatrixHelper.sum(Environment.PPDensity1);
+		Environment.PPDensity = MatrixHelper.divide(Environment.PPDensity1, Environment.PPDensitySum);
+		samples = sample(N);
+
+		udc = new double[2][facilities];
+		urc = new double[2][facilities];
+		for (int i = 0; i < facilities; i++) {
+			udc[0][i] = urc[0][i] = 1;
+			udc[1][i] = urc[1][i] = i % 2;
+		}
+	}
+
+	/**
+	 * @return n samples of the step one distribution used by BSHTask, the
+	 *         same ones in every fork
+	 */
+	public static Triple[] sample(int n){
+		return new SAA(2383906*Environment.PPDensitySum,2648785*Environment.PPDensitySum,
+				2913663*Environment.PPDensitySum,215325*Environment.PPDensitySum,
+				861300*Environment.PPDensitySum,1507275*Environment.PPDensitySum,0.525,0.7,0.875,1,n,
+				SAA.Sampling.MC, new RandomStream(SEED)).getSamples(0);
+	}
+}
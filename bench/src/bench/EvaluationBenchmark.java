@@ -0,0 +1,81 @@
+package bench;
+
+import ilog.concert.IloException;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import utils.Environment;
+import utils.RunningStat;
+import utils.Triple;
+import BSH.BSHNPrim;
+import BSH.BSHSubEvaluator;
+
+/**
+ * The step two work: evaluating a selection on N samples with the reusable
+ * BSHNPrim model and with BSHSubEvaluator, and drawing the SAA samples.
+ * @author Zhao Feng
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class EvaluationBenchmark {
+
+	@State(Scope.Thread)
+	public static class Models {
+		BSHNPrim model;
+		BSHSubEvaluator evaluator;
+
+		@Setup(Level.Trial)
+		public void setUp(BenchmarkInstance instance) throws IloException{
+			model = new BSHNPrim(Environment.nDC, Environment.nRC, Environment.nCustomers,
+					Environment.manCapacity, Environment.remanCapacity, instance.samples,
+					Environment.fixedCostDC, Environment.fixedCostRC, Environment.PPDensity,
+					Environment.flowCost_plant_DC, Environment.flowCost_DC_customers,
+					Environment.flowCost_customers_RC, Environment.flowCost_RC_plant);
+			evaluator = new BSHSubEvaluator(Environment.nDC, Environment.nRC, Environment.nCustomers,
+					Environment.manCapacity, Environment.remanCapacity, Environment.PPDensity,
+					Environment.flowCost_plant_DC, Environment.flowCost_DC_customers,
+					Environment.flowCost_customers_RC, Environment.flowCost_RC_plant);
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown(){
+			model.end();
+		}
+	}
+
+	@Benchmark
+	public RunningStat evaluateNPrim(BenchmarkInstance instance, Models models) throws IloException{
+		return models.model.getStatistics(instance.udc[0], instance.urc[0], 0, instance.N);
+	}
+
+	@Benchmark
+	public double evaluateNative(BenchmarkInstance instance, Models models){
+		double objValue = 0;
+		for(Triple sample: instance.samples){
+			objValue += models.evaluator.evaluate(sample, instance.udc[0], instance.urc[0], false).objValue;
+		}
+		return objValue;
+	}
+
+	@Benchmark
+	public Triple[] sampleSAA(BenchmarkInstance instance){
+		return BenchmarkInstance.sample(instance.N);
+	}
+}
@@ -0,0 +1,132 @@
+package bench;
+
+import ilog.concert.IloException;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import utils.Environment;
+import utils.Triple;
+import BSH.BSHSub;
+import BSH.BendersCut;
+import BSH.DualSolution;
+
+/**
+ * The per scenario work of the Benders callback: building a subproblem,
+ * updating it to a selection, solving it, extracting its duals and
+ * assembling the optimality cut of N scenarios.
+ * @author Zhao Feng
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class SubProblemBenchmark {
+
+	/**
+	 * The N subproblems of a callback, solved once at the first selection so
+	 * that duals are available. Every subproblem keeps only the basis of the
+	 * last selection it solved.
+	 */
+	@State(Scope.Thread)
+	public static class SubProblems {
+		BSHSub[] subs;
+		DualSolution[] duals;
+		int next = 0;   // selection of the next update
+		int basisPoolSize;   // of the Environment, restored after the trial
+
+		@Setup(Level.Trial)
+		public void setUp(BenchmarkInstance instance) throws IloException{
+			basisPoolSize = Environment.basisPoolSize;
+			Environment.basisPoolSize = 1;
+			subs = new BSHSub[instance.N];
+			duals = new DualSolution[instance.N];
+			for (int s = 0; s < instance.N; s++) {
+				subs[s] = build(instance.samples[s]);
+				subs[s].solve(instance.udc[0], instance.urc[0]);
+				duals[s] = subs[s].getDualSolution();
+			}
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown(){
+			for(BSHSub sub: subs){
+				sub.sub.end();
+			}
+			Environment.basisPoolSize = basisPoolSize;
+		}
+	}
+
+	static BSHSub build(Triple sample) throws IloException{
+		return new BSHSub(Environment.nDC, Environment.nRC, Environment.nCustomers,
+				Environment.manCapacity, Environment.remanCapacity, sample, null,
+				Environment.fixedCostDC, Environment.fixedCostRC, Environment.PPDensity,
+				Environment.flowCost_plant_DC, Environment.flowCost_DC_customers,
+				Environment.flowCost_customers_RC, Environment.flowCost_RC_plant);
+	}
+
+	@Benchmark
+	public BSHSub buildSubProblem(BenchmarkInstance instance) throws IloException{
+		BSHSub sub = build(instance.samples[0]);
+		sub.sub.end();
+		return sub;
+	}
+
+	/*
+	 * Alternates between the two selections, so every call changes half of the supply rows.
+	 */
+	@Benchmark
+	public BSHSub updateSubProblem(BenchmarkInstance instance, SubProblems state) throws IloException{
+		state.next = 1 - state.next;
+		state.subs[0].updateSubProblem(instance.udc[state.next], instance.urc[state.next]);
+		return state.subs[0];
+	}
+
+	/*
+	 * Alternates between the two selections, every solve starts from the stored
+	 * basis of the other one: the pool of one basis never holds its own.
+	 */
+	@Benchmark
+	public double solveScenarios(BenchmarkInstance instance, SubProblems state) throws IloException{
+		state.next = 1 - state.next;
+		double objValue = 0;
+		for(BSHSub sub: state.subs){
+			sub.solve(instance.udc[state.next], instance.urc[state.next]);
+			objValue += sub.sub.getObjValue();
+		}
+		return objValue;
+	}
+
+	@Benchmark
+	public DualSolution[] extractDuals(SubProblems state) throws IloException{
+		DualSolution[] duals = new DualSolution[state.subs.length];
+		for (int s = 0; s < state.subs.length; s++) {
+			duals[s] = state.subs[s].getDualSolution();
+		}
+		return duals;
+	}
+
+	@Benchmark
+	public BendersCut assembleCut(SubProblems state){
+		BendersCut cut = new BendersCut(Environment.nDC, Environment.nRC);
+		for (int s = 0; s < state.subs.length; s++) {
+			cut.addScenario(state.subs[s], state.duals[s]);
+		}
+		cut.scale(1.0/state.subs.length);
+		return cut;
+	}
+}
@@ -11,7 +11,6 @@ package BSH;
 //import ilog.concert.IloConstraint;
 import ilog.concert.IloException;
 import ilog.concert.IloLQNumExpr;
-import ilog.concert.IloNumExpr;
 import ilog.concert.IloNumVar;
 import ilog.concert.IloRange;
 import ilog.cplex.IloCplex;
@@ -24,6 +23,7 @@ import java.util.Arrays;
 
 import utils.Environment;
 import utils.MatrixHelper;
+import utils.ModelContext;
 import utils.Triple;
 
 /**
@@ -36,6 +36,7 @@ public class BSH {
 	private IloNumVar[] use_DC;     // use[i] = 1 if DC of i is used, 0 if not
 	private IloNumVar[] use_RC;     // use[i] = 1 if RC of i is used, 0 if not
 	private IloNumVar operationalProfit;   // surrogate variable for profit
+	private IloNumVar[] theta = null;     // multi-cut: surrogate profit of each scenario cluster
 
 	private double[] capacity_DC;   
 
@@ -51,6 +52,7 @@ public class BSH {
 	private double[] fixedCostDC;
 	private double[] fixedCostRC;
 	private Triple[] samples = null;
+	private ModelContext context;   // the instance
 	
 	private int numCuts = 0;
 
@@ -83,6 +85,16 @@ public class BSH {
 	//	private PrintStream outSub;
 
 	private BSHSub[] subproblems;
+	private SubProblemSolver subSolver;   // solves the subproblems, possibly in parallel
+	private BSHSubEvaluator evaluator = null;   // solves the subproblems without CPLEX if Environment.nativeSub
+	private SubProblemCache cache = null;   // subproblem results of the selections seen, null if disabled
+	private DualPool dualPool = null;   // scenario duals found so far, null if disabled
+	private int numPoolCuts = 0;   // cuts taken from the dual pool without solving the subproblems
+	private int numFeasibilityCuts = 0, numNoGoodCuts = 0;   // cuts for infeasible scenarios, no-good cuts among them
+	private BendersMetrics metrics = null;   // time series of the callbacks, null if Environment.metricsDir is not set
+	private long[] phaseStart = new long[3];   // subproblem phase times before the current disposal cost
+	private double[] lastUdc = null, lastUrc = null;   // selection of the last solve, null before
+	private final IloCplex.Aborter aborter = new IloCplex.Aborter();   // stops the master from another thread
 
 	/**
 	 * Constructor.
@@ -101,9 +113,50 @@ public class BSH {
 			double[] fixedCostDC, double[] fixedCostRC, 
 			double[] PPDensity, double[] flowCost_plant_DC, double[][] flowCost_DC_customers, 
 			double[][] flowCost_customers_RC, double[] flowCost_RC_plant) throws IloException{
+		this(nDC, nRC, nCustomers, manCapacity, remanCapacity, samples, fixedCostDC, fixedCostRC,
+				PPDensity, flowCost_plant_DC, flowCost_DC_customers, flowCost_customers_RC, flowCost_RC_plant, null);
+	}
+
+	/**
+	 * Constructor which seeds the master with the cuts of a dual pool.
+	 * @param seedPool the dual pool of a model with the same samples and costs,
+	 *        null to start with an empty pool
+	 * @throws IloException if something makes CPLEX unhappy
+	 */
+	public BSH(int nDC, int nRC, int nCustomers, double manCapacity, double remanCapacity, 
+			Triple[] samples,
+			double[] fixedCostDC, double[] fixedCostRC, 
+			double[] PPDensity, double[] flowCost_plant_DC, double[][] flowCost_DC_customers, 
+			double[][] flowCost_customers_RC, double[] flowCost_RC_plant, DualPool seedPool) throws IloException{
+		this(new ModelContext(nDC, nRC, nCustomers, manCapacity, remanCapacity, fixedCostDC, fixedCostRC,
+				PPDensity, Environment.PPDensitySum, flowCost_plant_DC, flowCost_DC_customers,
+				flowCost_customers_RC, flowCost_RC_plant, Environment.disposalCost), samples, seedPool);
+	}
+
+	/**
+	 * Constructor for the samples of an instance, logging to out/log.txt.
+	 * @param seedPool the dual pool of a model with the same samples and costs,
+	 *        null to start with an empty pool
+	 * @throws IloException if something makes CPLEX unhappy
+	 */
+	public BSH(ModelContext context, Triple[] samples, DualPool seedPool) throws IloException{
+		this(context, samples, seedPool, "out/log.txt");
+	}
+
+	/**
+	 * Constructor for the samples of an instance.
+	 * @param seedPool the dual pool of a model with the same samples and costs,
+	 *        null to start with an empty pool
+	 * @param logFile the file of the incumbent log, every model solved in
+	 *        parallel needs its own
+	 * @throws IloException if something makes CPLEX unhappy
+	 */
+	public BSH(ModelContext context, Triple[] samples, DualPool seedPool, String logFile) throws IloException{
+		this.context = context;
+		int nDC = context.nDC, nRC = context.nRC, nCustomers = context.nCustomers;
 		try {
 			//					outModel = new PrintStream(new FileOutputStream("out/model.txt"));
-			outLog = new PrintStream(new FileOutputStream("out/log.txt"));
+			outLog = new PrintStream(new FileOutputStream(logFile));
 			//					outMaster = new PrintStream(new FileOutputStream("out/master.txt"));
 			//					outSub = new PrintStream(new FileOutputStream("out/sub.txt"));
 		} catch (IOException e1) {
@@ -120,12 +173,12 @@ public class BSH {
 
 		// record capacities
 		this.capacity_DC = new double[2];
-		capacity_DC[0] = manCapacity;
-		capacity_DC[1] = remanCapacity;
+		capacity_DC[0] = context.manCapacity;
+		capacity_DC[1] = context.remanCapacity;
 
 		// record fix costs
-		this.fixedCostDC = fixedCostDC;
-		this.fixedCostRC = fixedCostRC;
+		this.fixedCostDC = context.fixedCostDC;
+		this.fixedCostRC = context.fixedCostRC;
 
 		// record flow costs
 		//		this.flowCost_plant_DC = flowCost_plant_DC;
@@ -142,6 +195,136 @@ public class BSH {
 		initMasterProblem();
 		// build a set of sub problems
 		initSubProblems();
+		if(Environment.nativeSub){
+			evaluator = new BSHSubEvaluator(context);
+		}
+		subSolver = new SubProblemSolver(subproblems, Environment.nSubThreads, evaluator);
+		if(Environment.subCacheSize > 0){
+			cache = new SubProblemCache(Environment.subCacheSize);
+		}
+		if(seedPool != null && seedPool.getNScenarios() == samples.length){
+			dualPool = seedPool;
+			seedMasterProblem();
+		}
+		else if(Environment.dualPoolSize > 0){
+			dualPool = new DualPool(samples.length, Environment.dualPoolSize);
+		}
+		openMetrics();
+	}
+
+	private void openMetrics() {
+		if(Environment.metricsDir != null){
+			try {
+				metrics = new BendersMetrics(Environment.metricsDir);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Prepares the model for another disposal cost, keeping the scenario
+	 * subproblems with their stored bases. The disposal cost only moves the
+	 * objective coefficient of the remanufactured quantity, but it changes
+	 * the value of every selection, so the cuts, the cached results and the
+	 * pooled duals of the old cost are dropped and the master model is built
+	 * again. The selection of the last solve is evaluated at the new cost
+	 * and given to the master as its optimality cut and as a MIP start.
+	 * @throws IloException if something makes CPLEX unhappy
+	 */
+	public void setDisposalCost(double disposalCost) throws IloException{
+		context = context.withDisposalCost(disposalCost);
+		for(BSHSub sub: subproblems){
+			sub.setDisposalCost(disposalCost);
+		}
+		if(evaluator != null) evaluator.setDisposalCost(disposalCost);
+		aborter.clear();
+		if(cache != null) cache.clear();
+		if(dualPool != null) dualPool.clear();
+		numCuts = numPoolCuts = numFeasibilityCuts = numNoGoodCuts = 0;
+		initMasterProblem();
+		if(metrics != null) metrics.close();
+		openMetrics();
+		// the metrics of the next solve start here, the warm start included
+		phaseStart = new long[3];
+		phaseStart = phaseNanos();
+		if(lastUdc != null) warmStart(lastUdc, lastUrc);
+	}
+
+	/*
+	 * Solves the subproblems at a selection, adds their optimality cuts to
+	 * the master and proposes the selection as a MIP start with its exact
+	 * profit estimates, which the callback accepts from the cache.
+	 */
+	private void warmStart(double[] udc, double[] urc) throws IloException {
+		double[] start_DC = new double[nDistributionCenter];
+		double[] start_RC = new double[nReturnCenter];
+		for (int i = 0; i < nDistributionCenter; i++) {
+			start_DC[i] = Math.round(udc[i]);
+		}
+		for (int i = 0; i < nReturnCenter; i++) {
+			start_RC[i] = Math.round(urc[i]);
+		}
+		if (subSolver.solve(start_DC, start_RC) != IloCplex.Status.Optimal) return;
+		SubProblemCache.Entry entry = evaluateSubProblems();
+		if (cache != null) cache.put(new FacilityConfiguration(start_DC, start_RC), entry);
+
+		int nClusters = nClusters();
+		IloNumVar[] vars = new IloNumVar[nDistributionCenter + nReturnCenter + 1 + (theta == null ? 0 : nClusters)];
+		double[] values = new double[vars.length];
+		System.arraycopy(use_DC, 0, vars, 0, nDistributionCenter);
+		System.arraycopy(start_DC, 0, values, 0, nDistributionCenter);
+		System.arraycopy(use_RC, 0, vars, nDistributionCenter, nReturnCenter);
+		System.arraycopy(start_RC, 0, values, nDistributionCenter, nReturnCenter);
+		vars[nDistributionCenter + nReturnCenter] = operationalProfit;
+		values[nDistributionCenter + nReturnCenter] = entry.expectObjValue;
+		for (int c = 0; c < nClusters; c++) {
+			IloNumVar estimate = (theta == null) ? operationalProfit : theta[c];
+			master.add(master.le(estimate, entry.cuts[c].toExpr(master, use_DC, use_RC)));
+			numCuts++;
+			if (theta != null) {
+				vars[nDistributionCenter + nReturnCenter + 1 + c] = theta[c];
+				values[nDistributionCenter + nReturnCenter + 1 + c] = entry.clusterObjValues[c];
+			}
+		}
+		master.addMIPStart(vars, values);
+	}
+
+	/*
+	 * Adds the most used cuts of the dual pool to the master, up to
+	 * Environment.dualPoolSeeds per profit estimate. A cluster without a cut
+	 * at some rank has none at the higher ones, the other clusters go on.
+	 */
+	private void seedMasterProblem() throws IloException {
+		for (int rank = 0; rank < Environment.dualPoolSeeds; rank++) {
+			boolean seeded = false;
+			for (int c = 0; c < nClusters(); c++) {
+				BendersCut cut = dualPool.seedCut(clusterStart(c), clusterStart(c + 1), rank,
+						nDistributionCenter, nReturnCenter);
+				if (cut == null) continue;
+				IloNumVar estimate = (theta == null) ? operationalProfit : theta[c];
+				master.add(master.le(estimate, cut.toExpr(master, use_DC, use_RC)));
+				numCuts++;
+				seeded = true;
+			}
+			if (!seeded) return;
+		}
+	}
+
+	/**
+	 * Stops the running solve, or the next one if none is running; it can be
+	 * called from any thread. The solve returns with the status AbortUser.
+	 * The model solves again after setDisposalCost.
+	 */
+	public void abort(){
+		aborter.abort();
+	}
+
+	/**
+	 * @return the dual pool of this model, null if disabled
+	 */
+	public DualPool getDualPool() {
+		return dualPool;
 	}
 
 	private void initSubProblems() throws IloException {
@@ -149,13 +332,8 @@ public class BSH {
 		subproblems = new BSHSub[samples.length];
 		for(int index = 0 ; index< samples.length; index++){
 			currentSample = samples[index];
-			subproblems[index] = new BSHSub(Environment.nDC, Environment.nRC,Environment.nCustomers, 
-					Environment.manCapacity,Environment.remanCapacity,
-					//					currentSample,outSub, 
-					currentSample,null,
-					Environment.fixedCostDC,Environment.fixedCostRC,Environment.PPDensity,
-					Environment.flowCost_plant_DC, Environment.flowCost_DC_customers,
-					Environment.flowCost_customers_RC,Environment.flowCost_RC_plant);
+			//			subproblems[index] = new BSHSub(context, currentSample, outSub);
+			subproblems[index] = new BSHSub(context, currentSample, null);
 		}
 	}
 
@@ -173,18 +351,47 @@ public class BSH {
 	 * If the subproblem is optimized but the incumbent's estimated flow cost
 	 * underestimates the true flow cost, the callback adds an optimality cut
 	 * (eliminating the proposed incumbent).
-	 * 
-	 * If the subproblem proves to be infeasible, the callback adds a feasibility
-	 * cut (eliminating the proposed incumbent).
+	 *
+	 * In multi-cut mode (Environment.nCutClusters > 1) the same test is done
+	 * for the estimate of every scenario cluster, and one cut is added for
+	 * each cluster that is underestimated.
+	 *
+	 * The results of a selection are cached (Environment.subCacheSize), so a
+	 * selection proposed again gets its cut without solving the subproblems.
+	 * For a new selection the duals found so far (Environment.dualPoolSize)
+	 * are tried first, and the subproblems are only solved if none of them
+	 * gives a violated cut.
+	 *
+	 * If a subproblem proves to be infeasible, the callback adds a feasibility
+	 * cut built from its Farkas certificate (eliminating the proposed incumbent).
+	 * Without a certificate, or if a subproblem is unbounded, a no-good cut
+	 * excludes just that selection.
 	 * 
 	 * Those should be the only possible outcomes. If something else happens
-	 * (subproblem unbounded or unsolved), the callback writes a message to
+	 * (subproblem unsolved), the callback writes a message to
 	 * stderr and punts.
+	 *
+	 * With Environment.metricsDir set, every call is recorded in BendersMetrics.
 	 */
 	class BendersCallback extends IloCplex.LazyConstraintCallback {
 
 		@Override
 		protected void main() throws IloException {
+			if (metrics == null) {
+				process();
+				return;
+			}
+			metrics.callbackStarted();
+			String event = process();
+			long[] phases = phaseNanos();
+			metrics.callbackEnded(event, getNnodes64(), numCuts, getBestObjValue(),
+					hasIncumbent() ? getIncumbentObjValue() : Double.NaN, phases[0], phases[1], phases[2]);
+		}
+
+		/*
+		 * @return what the callback did, for the metrics
+		 */
+		private String process() throws IloException {
 			//			System.out.println();
 			double zMaster = getValue(operationalProfit);  // get master profit estimate
 			//			double profit = getObjValue();
@@ -200,143 +407,260 @@ public class BSH {
 			}
 			expectRet = expectRet/samples.length;
 
-			// record sub result
-			// similar to node.SAACompAfterCurrent
-			double currentSubObjValue = 0;
-			DualSolution[] allDualSolution = new DualSolution[samples.length]; //obj.all_x
-			DualSolution currentDualSolution = null;
-			BSHSub currentSub;        
-			IloCplex.Status status = null;
-			double expectSubObjValue = 0;
-			double expectflowManQuantity = 0;
-			double expectflowRemanQuantity = 0;
-
-			for(int index = 0 ; index< samples.length; index++){
-				subproblems[index].updateSubProblem(udc, urc);
-				currentSub = subproblems[index];
-				//				outModel.println(currentSub.sub);
-				// solve the subproblem
-				currentSub.sub.solve();
-				status = currentSub.sub.getStatus();
-				//if one sub problem is not optimal, we break out from the loop 
-				if(status != IloCplex.Status.Optimal) break;
-
-				currentSubObjValue = currentSub.sub.getObjValue();
-//				currentSubObjValue = currentSub.sub.getObjValue() - (Environment.holdingCost + Environment.disposalCost)*samples[index].ret;
-				//				System.out.println("sub problem obj value: " + currentSubObjValue);
-				expectSubObjValue += currentSubObjValue;
-				//get the dual solution
-				double q_new = currentSub.sub.getValue(currentSub.manQuantity);
-				double q_reman = currentSub.sub.getValue(currentSub.remanQuantity);
-				expectflowManQuantity += q_new;
-				expectflowRemanQuantity += q_reman;
-				double[] gamma = currentSub.sub.getDuals(currentSub.cCapacity);	
-				double[][] epsilon_DC_new = new double[nDistributionCenter][nMarket];
-				for(int i = 0 ; i < nDistributionCenter; i++){
-					epsilon_DC_new[i] = currentSub.sub.getDuals(currentSub.cSupply_DC_new[i]);
-				}
-				double[][] epsilon_DC_reman = new double[nDistributionCenter][nMarket];
-				for(int i = 0 ; i < nDistributionCenter; i++){
-					epsilon_DC_reman[i] = currentSub.sub.getDuals(currentSub.cSupply_DC_reman[i]);
-				}
-				double[][] epsilon_RC = new double[nMarket][nReturnCenter];
-				for(int i = 0 ; i < nMarket; i++){
-					epsilon_RC[i] = currentSub.sub.getDuals(currentSub.cSupply_RC[i]);
+			// the results of a selection seen before are taken from the cache
+			FacilityConfiguration configuration = new FacilityConfiguration(udc, urc);
+			SubProblemCache.Entry entry = (cache == null) ? null : cache.get(configuration);
+			boolean solved = false;
+			// a violated cut from the duals found so far saves solving the subproblems
+			long start = System.nanoTime();
+			if (entry == null && dualPool != null) {
+				boolean cutAdded = addPoolCuts(zMaster, udc, urc);
+				addCutTime(start);
+				if (cutAdded) return "pool";
+			}
+			if (entry == null) {
+				// solve the subproblems, the results are kept by scenario index
+				IloCplex.Status status = subSolver.solve(udc, urc);
+				if (status != IloCplex.Status.Optimal) {
+					start = System.nanoTime();
+					boolean cutAdded = addFeasibilityCut(udc, urc);
+					addCutTime(start);
+					if (!cutAdded) {
+						// unexpected status -- report but do nothing
+						System.err.println("!!! Unexpected subproblem solution status: "
+								+ status);
+						return "error";
+					}
+					return "feasibility";
 				}
-				double[] chi = currentSub.sub.getDuals(currentSub.cFlowBalance_return);
-				currentDualSolution  = new DualSolution(q_new,q_reman,gamma,epsilon_DC_new, epsilon_DC_reman, 
-						epsilon_RC, chi);
-				allDualSolution[index] = currentDualSolution;
+				start = System.nanoTime();
+				entry = evaluateSubProblems();
+				if (cache != null) cache.put(configuration, entry);
+				solved = true;
+			}
+			else {
+				start = System.nanoTime();
 			}
-			expectSubObjValue /=samples.length;//obj.expect_fval_d
-			expectflowManQuantity /= samples.length;
-			expectflowRemanQuantity /= samples.length;
 
 			// double obj = -I * sub.getValue(manQuantity) * sub.getValue(manQuantity) + 2 * sub.remanDepreciation * I * manQuantity * remanQuantity
 			// + remanDepreciation * I * remanQuantity * remanQuantity
 			// - manA * manQuantity - remanA * remanQuantity
 			// + flowCost_plant_DC + flowCost_DC_customers + flowCost_customers_RC + flowCost_RC_plant
-			if (status == IloCplex.Status.Optimal) {
-				// similar to node.updateO_n(obj)
-				if (zMaster > expectSubObjValue + Environment.FUZZ) {
-					IloNumExpr expr = master.numExpr();
-					// compute the scalar product of the RHS of constraints
-					// with the duals for those constraints
-					for(int index = 0; index < allDualSolution.length; index++){
-						currentSub = subproblems[index];
-						currentDualSolution = allDualSolution[index];
-						for (int j = 0; j < 4; j++) {
-							expr = master.sum(expr, currentDualSolution.gamma[j]*currentSub.cCapacity[j].getUB());//master.prod(gamma[j], rhs.get(cCapacity[j])));
-						}
-						for (int i = 0; i < nDistributionCenter; i++) {
-							for (int j = 0; j < nMarket; j++){
-								expr = master.sum(expr, master.prod(currentDualSolution.epsilon_DC_new[i][j]* capacity_DC[0] , use_DC[i]));//master.prod(epsilon_DC_new[i][j], rhs.get(cSupply_DC_new[i][j])));
-							}
-						}
-						for (int i = 0; i < nDistributionCenter; i++) {
-							for (int j = 0; j < nMarket; j++){
-								expr = master.sum(expr, master.prod(currentDualSolution.epsilon_DC_reman[i][j]*capacity_DC[1] , use_DC[i]));//master.prod(epsilon_DC_reman[i][j], rhs.get(cSupply_DC_reman[i][j])));
-							}
-						}
-						for (int i = 0; i < nMarket; i++) {
-							for (int j = 0; j < nReturnCenter; j++){
-								expr = master.sum(expr,master.prod(currentDualSolution.epsilon_RC[i][j] * currentSub.capacity_RC[j], use_RC[j])); //master.prod(epsilon_RC[i][j], rhs.get(cSupply_RC[i][j])));
-							}
-						}
-						for (int j = 0; j < nMarket; j++) {
-							expr = master.sum(expr, currentDualSolution.chi[j]*currentSub.cFlowBalance_return[j].getUB());//master.prod(chi[j], rhs.get(cFlowBalance_return[j])));
-						}
-						double I = (Environment.reservationPriceUB - Environment.reservationPriceLB)/samples[index].marketSize; 
-						expr = master.sum(expr, I * currentDualSolution.q_new * currentDualSolution.q_new);
-						expr = master.sum(expr, 2 * Environment.remanDepreciation * I * currentDualSolution.q_new 
-								* currentDualSolution.q_reman);
-						expr = master.sum(expr, Environment.remanDepreciation * I * currentDualSolution.q_reman 
-								* currentDualSolution.q_reman);
-					}
-					expr = master.prod(1f/samples.length, expr);
-					// add the optimality cut						
-					add((IloRange) master.le(operationalProfit, expr));
+			boolean cutAdded = false;
+			// similar to node.updateO_n(obj)
+			if (theta == null) {
+				if (zMaster > entry.expectObjValue + Environment.FUZZ) {
+					// add the optimality cut
+					add((IloRange) master.le(operationalProfit, entry.cuts[0].toExpr(master, use_DC, use_RC)));
 					numCuts++;
-					
-					//					System.out.println(">>> Adding optimality cut: " + r);						
-				} else {
-					System.out.println(">>> Accepting new incumbent with value " + getObjValue());
-					outLog.println(">>> Accepting new incumbent with value " + getObjValue());
+					cutAdded = true;
+					//					System.out.println(">>> Adding optimality cut: " + r);
+				}
+			} else {
+				// multi-cut: one cut for every cluster whose estimate is too optimistic
+				double[] zTheta = getValues(theta);
+				for (int c = 0; c < theta.length; c++) {
+					if (zTheta[c] > entry.clusterObjValues[c] + Environment.FUZZ/theta.length) {
+						add((IloRange) master.le(theta[c], entry.cuts[c].toExpr(master, use_DC, use_RC)));
+						numCuts++;
+						cutAdded = true;
+					}
+				}
+			}
+			addCutTime(start);
+			if (cutAdded) {
+				return solved ? "cut" : "cached cut";
+			}
+			else {
+				System.out.println(">>> Accepting new incumbent with value " + getObjValue());
+				outLog.println(">>> Accepting new incumbent with value " + getObjValue());
 
-					BSHSub subOne = subproblems[0];
+				if (entry.incumbent == null) {
+					entry.incumbent = incumbentFlows(udc, urc, solved);
+				}
+				flowPlant_DC = entry.incumbent.plant_DC;
+				flowDC_customers = entry.incumbent.DC_customers;
+				flowCustomers_RC = entry.incumbent.customers_RC;
+				flowRC_plant = entry.incumbent.RC_plant;
+				flowManQuantity = entry.incumbent.manQuantity;
+				flowRemanQuantity = entry.incumbent.remanQuantity;
+
+				PrimalSolution s = new PrimalSolution(getObjValue(), udc, urc,
+						flowPlant_DC,flowDC_customers,flowCustomers_RC,flowRC_plant,flowManQuantity,
+						flowRemanQuantity, entry.incumbent.status);
+				s.print(System.out);
+				s.print(outLog);
+				return "accept";
+			}
+		}
 
-					flowManQuantity = expectflowManQuantity;
-					flowRemanQuantity = expectflowRemanQuantity;
+		private void addCutTime(long start) {
+			if (metrics != null) metrics.addCutTime(System.nanoTime() - start);
+		}
 
-					for (int l = 0; l < 2; l++){
-						flowPlant_DC[l] = subOne.sub.getValues(subOne.plant_DC[l]);
-					}
-					for (int l = 0; l < 2; l++){
-						for (int i = 0; i < nDistributionCenter; i++) {
-							flowDC_customers[l][i] = subOne.sub.getValues(subOne.DC_customers[l][i]);
-						}
-					}
-					for (int i = 0; i < nMarket; i++) {
-						for (int j = 0; j < nReturnCenter; j++) {
-							flowCustomers_RC[i][j] = subOne.sub.getValue(subOne.customers_RC[i][j]);
-						}
-					}
-					flowRC_plant = subOne.sub.getValues(subOne.RC_plant);		
-					flowManQuantity = subOne.sub.getValue(subOne.manQuantity);
-					flowRemanQuantity = subOne.sub.getValue(subOne.remanQuantity);
-
-					PrimalSolution s = new PrimalSolution(getObjValue(), udc, urc,
-							flowPlant_DC,flowDC_customers,flowCustomers_RC,flowRC_plant,flowManQuantity,
-							flowRemanQuantity, subOne.sub.getCplexStatus());
-					s.print(System.out);
-					s.print(outLog);
+		/*
+		 * Cuts off a selection for which a scenario subproblem is infeasible,
+		 * with a Farkas cut if CPLEX provides a certificate and with a no-good
+		 * cut on the selection otherwise (also if the subproblem is unbounded).
+		 * @return true if a cut was added
+		 */
+		private boolean addFeasibilityCut(double[] udc, double[] urc) throws IloException {
+			for (int index = 0; index < samples.length; index++) {
+				IloCplex.Status status = subSolver.status[index];
+				if (status != IloCplex.Status.Infeasible && status != IloCplex.Status.Unbounded
+						&& status != IloCplex.Status.InfeasibleOrUnbounded) continue;
+				BendersCut cut = null;
+				if (status == IloCplex.Status.Infeasible) {
+					cut = subproblems[index].feasibilityCut();
+				}
+				// the certificate has to cut off the selection
+				if (cut == null || cut.evaluate(udc, urc) <= 0) {
+					cut = BendersCut.noGood(udc, urc);
+					numNoGoodCuts++;
+				}
+				add(master.le(cut.toExpr(master, use_DC, use_RC), 0));
+				numCuts++;
+				numFeasibilityCuts++;
+				return true;
+			}
+			return false;
+		}
+
+		/*
+		 * Adds the tightest cut of the dual pool for every profit estimate it
+		 * proves too optimistic at the selection.
+		 * @return true if a cut was added
+		 */
+		private boolean addPoolCuts(double zMaster, double[] udc, double[] urc) throws IloException {
+			boolean cutAdded = false;
+			if (theta == null) {
+				BendersCut cut = dualPool.bestCut(0, samples.length, udc, urc);
+				if (cut != null && zMaster > cut.evaluate(udc, urc) + Environment.FUZZ) {
+					add((IloRange) master.le(operationalProfit, cut.toExpr(master, use_DC, use_RC)));
+					numCuts++;
+					numPoolCuts++;
+					cutAdded = true;
 				}
 			} else {
-				// unexpected status -- report but do nothing
-				System.err.println("!!! Unexpected subproblem solution status: "
-						+ status);
+				double[] zTheta = getValues(theta);
+				for (int c = 0; c < theta.length; c++) {
+					BendersCut cut = dualPool.bestCut(clusterStart(c), clusterStart(c + 1), udc, urc);
+					if (cut != null && zTheta[c] > cut.evaluate(udc, urc) + Environment.FUZZ/theta.length) {
+						add((IloRange) master.le(theta[c], cut.toExpr(master, use_DC, use_RC)));
+						numCuts++;
+						numPoolCuts++;
+						cutAdded = true;
+					}
+				}
+			}
+			return cutAdded;
+		}
+	}
+
+	/*
+	 * Collects the objective values and optimality cuts of all scenario
+	 * clusters from the subproblems just solved.
+	 */
+	private SubProblemCache.Entry evaluateSubProblems() {
+		int nClusters = nClusters();
+		double expectSubObjValue = 0;   //obj.expect_fval_d
+		double[] clusterObjValues = new double[nClusters];
+		BendersCut[] cuts = new BendersCut[nClusters];
+		for (int c = 0; c < nClusters; c++) {
+			int from = clusterStart(c), to = clusterStart(c + 1);
+			for (int index = from; index < to; index++) {
+				clusterObjValues[c] += subSolver.objValues[index];
+			}
+			clusterObjValues[c] /= samples.length;
+			expectSubObjValue += clusterObjValues[c];
+			cuts[c] = optimalityCut(from, to);
+		}
+		return new SubProblemCache.Entry(expectSubObjValue, clusterObjValues, cuts);
+	}
+
+	/*
+	 * Reads the flows of the first scenario at the selection. If the
+	 * results came from the cache, CPLEX holds the solution of another
+	 * selection and the first scenario is solved again.
+	 */
+	private PrimalSolution incumbentFlows(double[] udc, double[] urc, boolean solved) throws IloException {
+		BSHSub subOne = subproblems[0];
+		if (evaluator != null && !Environment.nativeSubCheck) {
+			// the first subproblem was not solved by CPLEX
+			BSHSubEvaluator.Result res = evaluator.evaluate(subOne.sample, udc, urc, true);
+			return new PrimalSolution(0, udc, urc, res.plant_DC, res.DC_customers, res.customers_RC,
+					res.RC_plant, res.manQuantity, res.remanQuantity, IloCplex.CplexStatus.Optimal);
+		}
+		if (!solved) {
+			subOne.solve(udc, urc);
+		}
+		double[][] plant_DC = new double[2][];
+		double[][][] DC_customers = new double[2][nDistributionCenter][];
+		double[][] customers_RC = new double[nMarket][nReturnCenter];
+		for (int l = 0; l < 2; l++){
+			plant_DC[l] = subOne.sub.getValues(subOne.plant_DC[l]);
+		}
+		for (int l = 0; l < 2; l++){
+			for (int i = 0; i < nDistributionCenter; i++) {
+				DC_customers[l][i] = subOne.sub.getValues(subOne.DC_customers[l][i]);
+			}
+		}
+		for (int i = 0; i < nMarket; i++) {
+			for (int j = 0; j < nReturnCenter; j++) {
+				customers_RC[i][j] = subOne.sub.getValue(subOne.customers_RC[i][j]);
 			}
 		}
+		return new PrimalSolution(0, udc, urc, plant_DC, DC_customers, customers_RC,
+				subOne.sub.getValues(subOne.RC_plant), subOne.sub.getValue(subOne.manQuantity),
+				subOne.sub.getValue(subOne.remanQuantity), subOne.sub.getCplexStatus());
+	}
+
+	/*
+	 * Builds the right-hand side of the optimality cut for the scenarios
+	 * [from, to), i.e. the scalar product of the RHS of the subproblem
+	 * constraints with their duals, averaged over all scenarios.
+	 */
+	private BendersCut optimalityCut(int from, int to) {
+		BendersCut cut = new BendersCut(nDistributionCenter, nReturnCenter);
+		for(int index = from; index < to; index++){
+			BendersCut scenarioCut = new BendersCut(nDistributionCenter, nReturnCenter);
+			scenarioCut.addScenario(subproblems[index], subSolver.duals[index]);
+			if(dualPool != null) dualPool.add(index, scenarioCut);
+			cut.add(scenarioCut);
+		}
+		cut.scale(1.0/samples.length);
+		return cut;
+	}
+
+	/*
+	 * The scenarios are split into contiguous clusters; cluster c holds the
+	 * scenarios [clusterStart(c), clusterStart(c+1)).
+	 */
+	private int clusterStart(int c) {
+		return c * samples.length / nClusters();
+	}
+
+	private int nClusters() {
+		return (theta == null) ? 1 : theta.length;
+	}
+
+	/*
+	 * @return the time spent updating, solving and reading the duals of all
+	 *         subproblems at the current disposal cost, in nanoseconds;
+	 *         evaluator solves count as solving
+	 */
+	private long[] phaseNanos() {
+		long[] phases = new long[3];
+		for(BSHSub sub: subproblems){
+			phases[0] += sub.updateNanos;
+			phases[1] += sub.solveNanos;
+			phases[2] += sub.dualNanos;
+		}
+		phases[1] += subSolver.getNativeNanos();
+		for (int i = 0; i < phases.length; i++) {
+			phases[i] -= phaseStart[i];
+		}
+		return phases;
 	}
 
 	/**
@@ -346,6 +670,7 @@ public class BSH {
 	 */
 	public PrimalSolution solve() throws IloException {		
 		PrimalSolution s = new PrimalSolution();
+		if (metrics != null) metrics.startSolve();
 		if (master.solve()) {
 			s.profit = master.getObjValue();
 
@@ -356,6 +681,8 @@ public class BSH {
 
 			s.udc = master.getValues(use_DC);
 			s.urc = master.getValues(use_RC);
+			lastUdc = s.udc;
+			lastUrc = s.urc;
 			for(int l = 0; l < 2; l++) {
 				s.plant_DC[l] = Arrays.copyOf(flowPlant_DC[l], nDistributionCenter);
 			}
@@ -376,10 +703,55 @@ public class BSH {
 		s.nCuts = numCuts;
 		System.out.println("num of nodes " +s.nNodes);
 		System.out.println("num of cuts " +s.nCuts);
+		int nWarmSolves = 0, nColdSolves = 0;
+		long warmIterations = 0, coldIterations = 0;
+		for(BSHSub sub: subproblems){
+			nWarmSolves += sub.nWarmSolves;
+			nColdSolves += sub.nColdSolves;
+			warmIterations += sub.warmIterations;
+			coldIterations += sub.coldIterations;
+		}
+		if(cache != null){
+			System.out.println("subproblem cache hits " + cache.getNHits() + ", misses " + cache.getNMisses());
+		}
+		System.out.println("feasibility cuts " + numFeasibilityCuts + " (no-good " + numNoGoodCuts + ")");
+		if(dualPool != null){
+			System.out.println("cuts from the dual pool " + numPoolCuts + ", duals pooled " + dualPool.size());
+		}
+		System.out.println("subproblem solves from a stored basis " + nWarmSolves + " (avg iterations "
+				+ (nWarmSolves > 0 ? warmIterations / nWarmSolves : 0) + "), without " + nColdSolves
+				+ " (avg iterations " + (nColdSolves > 0 ? coldIterations / nColdSolves : 0) + ")");
+		if(metrics != null){
+			long[] phases = phaseNanos();
+			System.out.println(metrics.summary(phases[0], phases[1], phases[2]));
+			metrics.close();
+		}
 		return s;
 	}
 
+	/**
+	 * Limits the threads CPLEX uses for the master and for every subproblem,
+	 * e.g. when several models are solved at the same time. A model then uses
+	 * nThreads for the master plus Environment.nSubThreads workers solving the
+	 * subproblems, each on nThreads (on one thread if there are several
+	 * workers). The Benders callback is not thread safe and CPLEX runs it on
+	 * several threads at once if the master has more than one, so the
+	 * master of a model solved in parallel with others must have 1.
+	 * @param nThreads the number of threads, 0 for the CPLEX default
+	 * @throws IloException if something makes CPLEX unhappy
+	 */
+	public void setThreads(int nThreads) throws IloException{
+		master.setParam(IloCplex.IntParam.Threads, nThreads);
+		// with several workers the subproblems already run on one thread each
+		if(Math.min(Environment.nSubThreads, subproblems.length) <= 1){
+			for(BSHSub sub: subproblems){
+				sub.sub.setParam(IloCplex.IntParam.Threads, nThreads);
+			}
+		}
+	}
+
 	public void clear() throws IloException{
+		subSolver.shutdown();
 		master.clearModel();
 		for(BSHSub sub: subproblems){
 			sub.sub.clearModel();
@@ -394,8 +766,14 @@ public class BSH {
 	}
 
 	private void initMasterProblem() throws IloException{
-		// init the master problem
-		master = new IloCplex();
+		// init the master problem, a model built before is replaced
+		if(master == null){
+			master = new IloCplex();
+		}
+		else{
+			master.clearModel();
+			theta = null;
+		}
 		//		master.setOut(outMaster);
 		master.setOut(null);
 
@@ -471,12 +849,30 @@ public class BSH {
 		//set upper bound for est_operationalProfit
 		objExprMaster.clear();
 		objExprMaster.addTerm(1, operationalProfit);
-		master.addRange(Double.MIN_VALUE, objExprMaster, 1.0e15, "estOperationalProfit"); 
+		master.addRange(Double.MIN_VALUE, objExprMaster, 1.0e15, "estOperationalProfit");
+
+		// multi-cut: the profit estimate is the sum of the cluster estimates,
+		// each of them is bounded by its own optimality cuts
+		int nClusters = Math.min(Environment.nCutClusters, samples.length);
+		if(nClusters > 1){
+			String[] names_theta = new String[nClusters];
+			for (int c = 0; c < nClusters; c++) {
+				names_theta[c] = "estOperationalProfit" + c;
+			}
+			theta = master.numVarArray(nClusters, Double.MIN_VALUE, Double.MAX_VALUE, names_theta);
+			objExprMaster.clear();
+			objExprMaster.addTerm(1, operationalProfit);
+			for (int c = 0; c < nClusters; c++) {
+				objExprMaster.addTerm(-1, theta[c]);
+			}
+			master.addEq(objExprMaster, 0, "multiCut");
+		}
 
 		master.addMaximize(master.sum(operationalProfit, master.scalProd(MatrixHelper.multiple(fixedCostDC, -1), 
 				use_DC), master.scalProd(MatrixHelper.multiple(fixedCostRC, -1), use_RC)),"TotalProfit");
 		// attach a Benders callback to the master
 		master.use(new BendersCallback());
+		master.use(aborter);
 
 		//		set up master parameters
 		try {
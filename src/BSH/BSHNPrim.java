@@ -8,17 +8,20 @@
  */
 package BSH;
 
-import java.util.ArrayList;
 
 import ilog.concert.IloException;
 import ilog.concert.IloLQNumExpr;
+import ilog.concert.IloLinearNumExpr;
 import ilog.concert.IloNumVar;
+import ilog.concert.IloObjective;
 import ilog.concert.IloRange;
 import ilog.cplex.IloCplex;
 
+import java.util.Arrays;
 
 import utils.Environment;
-import utils.MatrixHelper;
+import utils.ModelContext;
+import utils.RunningStat;
 import utils.Triple;
 
 /**
@@ -36,7 +39,6 @@ public class BSHNPrim {
 	private IloNumVar remanQuantity;	// remanufacturing production quantity
 
 	private double[] capacity_DC;   
-	private double[] capacity_RC;
 
 	private int nDistributionCenter;      // number of DCs
 	private int nReturnCenter;      // number of RCs
@@ -55,6 +57,23 @@ public class BSHNPrim {
 	private double[] flowCost_RC_plant;
 	private double[] PPDensity;
 	private Triple[] samples = null;
+	private BSHSubEvaluator evaluator = null;   // solves the samples without CPLEX if Environment.nativeSub
+	private double disposalCost;
+
+	/*
+	 * The model is built once, on the first sample, and then only updated:
+	 * a sample changes the market size, recovery rate and returns, which only
+	 * enter a few right-hand sides, the recovery rate coefficients of the RC
+	 * flow balance and the quadratic objective; a selection only changes the
+	 * supply constraints.
+	 */
+	private IloCplex sub = null;
+	private IloObjective objective;
+	private IloLinearNumExpr flowCostExpr;   // the sample independent part of the objective
+	private IloRange[] cFlowBalance_RC;   // RC flow balance constraints
+	private IloNumVar[][] RC_customers;   // customers_RC by RC, the variables of cFlowBalance_RC
+	private FacilityConfiguration configuration = null;   // selection the supply constraints are set to
+	private double modelRecoveryRate = Double.NaN;   // recovery rate of the cFlowBalance_RC coefficients
 
 	/*
 	 * To compute both optimality and feasibility cuts, we will need to multiply
@@ -97,6 +116,29 @@ public class BSHNPrim {
 			double[] fixedCostDC, double[] fixedCostRC, 
 			double[] PPDensity, double[] flowCost_plant_DC, double[][] flowCost_DC_customers, 
 			double[][] flowCost_customers_RC, double[] flowCost_RC_plant) throws IloException{
+		this(nDC, nRC, nCustomers, manCapacity, remanCapacity, samples, fixedCostDC, fixedCostRC,
+				PPDensity, flowCost_plant_DC, flowCost_DC_customers, flowCost_customers_RC, flowCost_RC_plant,
+				Environment.disposalCost);
+	}
+
+	/**
+	 * Constructor for the samples of an instance.
+	 * @param samples the samples, null if they are passed to every getStatistics call
+	 * @throws IloException if something makes CPLEX unhappy
+	 */
+	public BSHNPrim(ModelContext context, Triple[] samples) throws IloException{
+		this(context.nDC, context.nRC, context.nCustomers, context.manCapacity, context.remanCapacity,
+				samples, context.fixedCostDC, context.fixedCostRC, context.PPDensity,
+				context.flowCost_plant_DC, context.flowCost_DC_customers, context.flowCost_customers_RC,
+				context.flowCost_RC_plant, context.disposalCost);
+	}
+
+	private BSHNPrim(int nDC, int nRC, int nCustomers, double manCapacity, double remanCapacity, 
+			Triple[] samples,
+			double[] fixedCostDC, double[] fixedCostRC, 
+			double[] PPDensity, double[] flowCost_plant_DC, double[][] flowCost_DC_customers, 
+			double[][] flowCost_customers_RC, double[] flowCost_RC_plant, double disposalCost) throws IloException{
+		this.disposalCost = disposalCost;
 //		try {
 //			outModel = new PrintStream(new FileOutputStream("out/modelNPrim.txt"));
 //		} catch (IOException e1) {
@@ -130,6 +172,12 @@ public class BSHNPrim {
 
 		// record the samples for sub problems
 		this.samples = samples;
+
+		if(Environment.nativeSub){
+			evaluator = new BSHSubEvaluator(nDC, nRC, nCustomers, manCapacity, remanCapacity,
+					PPDensity, flowCost_plant_DC, flowCost_DC_customers, flowCost_customers_RC, flowCost_RC_plant,
+					disposalCost);
+		}
 	}
 
 
@@ -138,18 +186,22 @@ public class BSHNPrim {
 //		outModel.close();
 	}
 
+	/**
+	 * Releases the CPLEX model.
+	 */
+	public void end(){
+		if(sub != null){
+			sub.end();
+			sub = null;
+			configuration = null;
+			modelRecoveryRate = Double.NaN;
+		}
+	}
 
-	// build the sub problem with repsect to the sample and usedc userc
-	private IloCplex buildSubProblem(Triple sample,double[] udc, double[] urc) throws IloException{
-		double marketSize = sample.marketSize;
-		double ret = sample.ret;
-		double recoveryRate = sample.recoveryRate;
 
-		this.capacity_RC = new double[nReturnCenter];
-		for(int i = 0; i< nReturnCenter ;i++) {
-			this.capacity_RC[i] = ret;
-		}
-		IloCplex sub = new IloCplex();
+	// build the sub problem, the sample and the selection are set by updateSample and updateConfiguration
+	private void buildSubProblem() throws IloException{
+		sub = new IloCplex();
 //		sub.setOut(outSub);	
 		sub.setOut(null);
 		plant_DC = new IloNumVar[2][nDistributionCenter];  // flow from plant i to DC j 
@@ -157,23 +209,11 @@ public class BSHNPrim {
 		customers_RC = new IloNumVar[nMarket][nReturnCenter];  //  flow from customer i to RC j
 		RC_plant = new IloNumVar[nReturnCenter]; 
 
-		double I = (Environment.reservationPriceUB - Environment.reservationPriceLB)/marketSize;   //I=(resPriceUB - resPriceLB) / marketSize;
-		double manA = Environment.reservationPriceUB - Environment.manCost - Environment.holdingCost;
-		double remanA = Environment.remanDepreciation * Environment.reservationPriceUB - 
-				Environment.remanCost - Environment.holdingCost + Environment.disposalCost;
-
-		//minimize I * manQuantity * manQuantity + 2 * remanDepreciation * I * manQuantity * remanQuantity
-		//          + remanDepreciation * I * remanQuantity * remanQuantity
-		//          - manA * manQuantity - remanA * remanQuantity
-		//          + flowCost_plant_DC + flowCost_DC_customers + flowCost_customers_RC + flowCost_RC_plant
-		IloLQNumExpr objExpr = sub.lqNumExpr();
+		// the flow costs of the objective, the rest is added by updateSample
+		flowCostExpr = sub.linearNumExpr();
+		IloLinearNumExpr objExpr = flowCostExpr;
 		manQuantity = sub.numVar(0, capacity_DC[0], "manQuantity");    
 		remanQuantity = sub.numVar(0, capacity_DC[1], "remanQuantity");  
-		objExpr.addTerm(-I, manQuantity, manQuantity);
-		objExpr.addTerm(-2 * Environment.remanDepreciation * I, manQuantity, remanQuantity);
-		objExpr.addTerm(-Environment.remanDepreciation * I, remanQuantity, remanQuantity);
-		objExpr.addTerm(manA, manQuantity);
-		objExpr.addTerm(remanA, remanQuantity);
 
 		for (int i = 0; i < nDistributionCenter; i++) {
 			plant_DC[0][i] = sub.numVar(0.0, Double.MAX_VALUE, 
@@ -212,7 +252,8 @@ public class BSHNPrim {
 			objExpr.addTerm(-flowCost_RC_plant[i], RC_plant[i]);
 		}
 
-		sub.addMaximize(objExpr, "operationalProfit");   
+		objective = sub.addMaximize(flowCostExpr, "operationalProfit");   
+		objExpr = sub.linearNumExpr();
 		for (int i = 0; i < nDistributionCenter; i++) {
 			objExpr.clear();
 			objExpr.addTerm(1, plant_DC[0][i]);
@@ -262,11 +303,11 @@ public class BSHNPrim {
 		objExpr.clear();
 		objExpr.addTerm(1.0, manQuantity);
 		objExpr.addTerm(1.0, remanQuantity);
-		cCapacity[2] = sub.addLe(objExpr, marketSize, "capacity_marketSize");
+		cCapacity[2] = sub.addLe(objExpr, 0, "capacity_marketSize");
 
 		objExpr.clear();
 		objExpr.addTerm(1.0, remanQuantity);
-		cCapacity[3] = sub.addLe(objExpr, recoveryRate*ret, "capacity_remanufacturable");
+		cCapacity[3] = sub.addLe(objExpr, 0, "capacity_remanufacturable");
 
 		//supply constraints
 		cSupply_DC_new = new IloRange[nDistributionCenter][nMarket];
@@ -296,14 +337,18 @@ public class BSHNPrim {
 
 		// add flow balance constraints to be satisfied -- record the constraints for use later
 		// RC_plant[i]-recoveryRate*\sum_j customers_RC[j][i] <= 0 for all i
+		cFlowBalance_RC = new IloRange[nReturnCenter];
+		RC_customers = new IloNumVar[nReturnCenter][nMarket];
 		for (int i = 0; i < nReturnCenter; i++) {
 			objExpr.clear();
 			for(int j = 0; j < nMarket; j++){
-				objExpr.addTerm(-recoveryRate, customers_RC[j][i]);
+				objExpr.addTerm(-1, customers_RC[j][i]);
+				RC_customers[i][j] = customers_RC[j][i];
 			}
 			objExpr.addTerm(1, RC_plant[i]);
-			sub.addLe(objExpr, 0,"flowBalance_RC_" + i);
+			cFlowBalance_RC[i] = sub.addLe(objExpr, 0,"flowBalance_RC_" + i);
 		}
+		modelRecoveryRate = 1;
 
 		// manQuantity - \sum_j plant_DC[0][j][0] = 0
 		objExpr.clear();
@@ -364,7 +409,7 @@ public class BSHNPrim {
 			for (int i = 0; i < nReturnCenter; i++) {
 				objExpr.addTerm(1, customers_RC[j][i]);
 			}
-			cFlowBalance_return[j] = sub.addEq(objExpr, ret*PPDensity[j], "flowBalance_return_Customer_" + j);
+			cFlowBalance_return[j] = sub.addEq(objExpr, 0, "flowBalance_return_Customer_" + j);
 			//			rhs.put(cFlowBalance_return[j], master.linearNumExpr(ret*PPDensity[j]));
 		}
 		// remanQuantity - \sum_i RC_plant[i][0] = 0
@@ -375,19 +420,6 @@ public class BSHNPrim {
 		}
 		sub.addEq(objExpr, 0, "flowBalance_RC_plant");
 
-		// set the supply constraint right-hand sides in the subproblem
-		for (int i = 0; i < nDistributionCenter; i++) {
-			for(int j = 0; j < nMarket; j++){
-				cSupply_DC_new[i][j].setUB((udc[i] > 0.5) ? capacity_DC[0] : 0);  
-				cSupply_DC_reman[i][j].setUB((udc[i] > 0.5) ? capacity_DC[1] : 0);					
-			}
-		}
-		for (int i = 0; i < nMarket; i++) {
-			for(int j = 0; j < nReturnCenter; j++){
-				cSupply_RC[i][j].setUB((urc[j] > 0.5) ? capacity_RC[j] : 0);
-			}
-		}
-
 		// disable presolving of the subproblem (if the presolver realizes the
 		// subproblem is infeasible, we do not get a dual ray)
 //		sub.setParam(IloCplex.BooleanParam.PreInd, false);
@@ -395,14 +427,96 @@ public class BSHNPrim {
 		sub.setParam(IloCplex.IntParam.NodeAlg, IloCplex.Algorithm.Dual);
 		sub.setParam(IloCplex.IntParam.MIPEmphasis, IloCplex.MIPEmphasis.Optimality);
 		sub.setParam(IloCplex.IntParam.ParallelMode, IloCplex.ParallelMode.Opportunistic);
+	}
+
+	// set the sample dependent objective, right-hand sides and coefficients
+	private void updateSample(Triple sample) throws IloException{
+		double marketSize = sample.marketSize;
+		double ret = sample.ret;
+		double recoveryRate = sample.recoveryRate;
+
+		double I = (Environment.reservationPriceUB - Environment.reservationPriceLB)/marketSize;   //I=(resPriceUB - resPriceLB) / marketSize;
+		double manA = Environment.reservationPriceUB - Environment.manCost - Environment.holdingCost;
+		double remanA = Environment.remanDepreciation * Environment.reservationPriceUB - 
+				Environment.remanCost - Environment.holdingCost + disposalCost;
+
+		//minimize I * manQuantity * manQuantity + 2 * remanDepreciation * I * manQuantity * remanQuantity
+		//          + remanDepreciation * I * remanQuantity * remanQuantity
+		//          - manA * manQuantity - remanA * remanQuantity
+		//          + flowCost_plant_DC + flowCost_DC_customers + flowCost_customers_RC + flowCost_RC_plant
+		IloLQNumExpr objExpr = sub.lqNumExpr();
+		objExpr.addTerm(-I, manQuantity, manQuantity);
+		objExpr.addTerm(-2 * Environment.remanDepreciation * I, manQuantity, remanQuantity);
+		objExpr.addTerm(-Environment.remanDepreciation * I, remanQuantity, remanQuantity);
+		objExpr.addTerm(manA, manQuantity);
+		objExpr.addTerm(remanA, remanQuantity);
+		objective.setExpr(sub.sum(objExpr, flowCostExpr));
 
-		return sub;
+		cCapacity[2].setUB(marketSize);
+		cCapacity[3].setUB(recoveryRate*ret);
+		for (int j = 0; j < nMarket; j++) {
+			cFlowBalance_return[j].setBounds(ret*PPDensity[j], ret*PPDensity[j]);
+		}
+		// the RC capacity is the returns
+		for (int i = 0; i < nMarket; i++) {
+			for(int j = 0; j < nReturnCenter; j++){
+				cSupply_RC[i][j].setUB(configuration.isRCUsed(j) ? ret : 0);
+			}
+		}
+		if(recoveryRate != modelRecoveryRate){
+			double[] coefs = new double[nMarket];
+			Arrays.fill(coefs, -recoveryRate);
+			for (int i = 0; i < nReturnCenter; i++) {
+				sub.setLinearCoefs(cFlowBalance_RC[i], coefs, RC_customers[i]);
+			}
+			modelRecoveryRate = recoveryRate;
+		}
+	}
+
+	// set the DC supply constraints of the DCs whose use differs from the current selection
+	private void updateConfiguration(FacilityConfiguration next) throws IloException{
+		for (int i = 0; i < nDistributionCenter; i++) {
+			if(configuration != null && configuration.isDCUsed(i) == next.isDCUsed(i)) continue;
+			for(int j = 0; j < nMarket; j++){
+				cSupply_DC_new[i][j].setUB(next.isDCUsed(i) ? capacity_DC[0] : 0);  
+				cSupply_DC_reman[i][j].setUB(next.isDCUsed(i) ? capacity_DC[1] : 0);					
+			}
+		}
+		// the RC supply constraints depend on the returns as well, they are set by updateSample
+		configuration = next;
 	}
 
 	public double[] getExpectfvalandVarWithNprimSamples(double[] udc, double[] urc) throws IloException {
-		IloCplex sub =null;
+		RunningStat stat = getStatistics(udc, urc, 0, samples.length);
+		end();
+		double[] res = new double[2];
+		res[0] = stat.getMean();
+		res[1] = stat.getVariance();
+		
+		return res;
+	}
+
+	/**
+	 * Evaluates a selection on the samples [from, to). The model is kept for
+	 * the next call, release it with end().
+	 * @param udc DC used
+	 * @param urc RC used
+	 * @return the statistics of the profit (operational profit minus fixed costs) over the samples
+	 * @throws IloException if something makes CPLEX unhappy
+	 */
+	public RunningStat getStatistics(double[] udc, double[] urc, int from, int to) throws IloException {
+		return getStatistics(udc, urc, samples, from, to);
+	}
+
+	/**
+	 * Evaluates a selection on the given samples [from, to), e.g. a chunk of
+	 * a ScenarioStream. The model is kept for the next call, release it with end().
+	 * @return the statistics of the profit (operational profit minus fixed costs) over the samples
+	 * @throws IloException if something makes CPLEX unhappy
+	 */
+	public RunningStat getStatistics(double[] udc, double[] urc, Triple[] samples, int from, int to) throws IloException {
 		double fixedCost = 0;
-		ArrayList<Double> vals = new ArrayList<Double>();
+		RunningStat stat = new RunningStat();
 		for (int i = 0; i < udc.length; i++){
 			if(udc[i]>0.5)
 				fixedCost += fixedCostDC[i];
@@ -411,42 +525,31 @@ public class BSHNPrim {
 			if(urc[i]>0.5)
 				fixedCost += fixedCostRC[i];
 		}
-		for(Triple sample: samples){
-			sub = buildSubProblem(sample, udc, urc);
-//			sub.setOut(outSub);
-			sub.setOut(null);
-			sub.solve();
-			for (int l = 0; l < 2; l++){
-				flowPlant_DC[l] = sub.getValues(plant_DC[l]);
-			}
-			for (int l = 0; l < 2; l++){
-				for (int i = 0; i < nDistributionCenter; i++) {
-					flowDC_customers[l][i] = sub.getValues(DC_customers[l][i]);
+		FacilityConfiguration next = new FacilityConfiguration(udc, urc);
+		for(int index = from; index < to; index++){
+			Triple sample = samples[index];
+			BSHSubEvaluator.Result nativeResult = null;
+			if(evaluator != null){
+				nativeResult = evaluator.evaluate(sample, udc, urc, false);
+				if(nativeResult.status == IloCplex.Status.Optimal && !Environment.nativeSubCheck){
+					stat.add(nativeResult.objValue - fixedCost);
+					continue;
 				}
 			}
-			for (int i = 0; i < nMarket; i++) {
-				for (int j = 0; j < nReturnCenter; j++) {
-					flowCustomers_RC[i][j] = sub.getValue(customers_RC[i][j]);
-				}
-			}
-			flowRC_plant = sub.getValues(RC_plant);		
-			flowManQuantity = sub.getValue(manQuantity);
-			flowRemanQuantity = sub.getValue(remanQuantity);
-
-//			PrimalSolution s = new PrimalSolution(sub.getObjValue() - fixedCost, udc, urc,
-//					flowPlant_DC,flowDC_customers,flowCustomers_RC,flowRC_plant,
-//					flowManQuantity,flowRemanQuantity,sub.getCplexStatus());
-//			s.print(System.out);
-			
+			if(sub == null) buildSubProblem();
+			if(!next.equals(configuration)) updateConfiguration(next);
+			updateSample(sample);
+//			sub.setOut(outSub);
+			sub.solve();
+			// only the profit is used, the flows are not copied
+
 //			outModel.println(sub);
-			vals.add(sub.getObjValue() - fixedCost);
-			sub.clearModel();
+			if(nativeResult != null && nativeResult.status == IloCplex.Status.Optimal){
+				evaluator.check(nativeResult.objValue, sub.getObjValue(), "sample " + sample);
+			}
+			stat.add(sub.getObjValue() - fixedCost);
 		}
-		double[] res = new double[2];
-		res[0] = MatrixHelper.getMean(vals);
-		res[1] = MatrixHelper.getVariance(vals);
-		
-		return res;
+		return stat;
 	}
 	
 }
@@ -8,17 +8,24 @@
  */
 package BSH;
 
+import ilog.concert.IloConstraint;
 import ilog.concert.IloException;
 import ilog.concert.IloLQNumExpr;
 import ilog.concert.IloNumVar;
+import ilog.concert.IloObjective;
 import ilog.concert.IloRange;
 import ilog.cplex.IloCplex;
 import ilog.cplex.IloCplex.NodeSelect;
 import ilog.cplex.IloCplex.VariableSelect;
 
 import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import utils.Environment;
+import utils.ModelContext;
 import utils.Triple;
 
 /**
@@ -54,6 +61,8 @@ public class BSHSub {
 	public double[][] flowCost_customers_RC;
 	public double[] flowCost_RC_plant;
 	public double[] PPDensity;
+	public Triple sample;   // the scenario of this subproblem
+	private double disposalCost;
 
 
 	public IloRange[] cCapacity;   // capacity constraints
@@ -66,6 +75,55 @@ public class BSHSub {
 //	public IloLPMatrix[] cSupply_DC_new;
 	
 	public IloCplex sub;
+	private IloObjective objective;
+
+	// all columns and rows, to save and restore the basis
+	private IloNumVar[] allVars;
+	private IloRange[] allRows;
+	private boolean basisAvailable = true;   // false once CPLEX could not provide a basis
+
+	// bases of the last solved selections, the least recently used is dropped first
+	private LinkedHashMap<FacilityConfiguration, Basis> basisPool =
+			new LinkedHashMap<FacilityConfiguration, Basis>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<FacilityConfiguration, Basis> eldest) {
+			return size() > Environment.basisPoolSize;
+		}
+	};
+	private FacilityConfiguration lastConfiguration = null;   // selection of the basis CPLEX holds
+	private FacilityConfiguration boundsConfiguration = null;   // selection the supply rows are set to
+
+	public int nWarmSolves = 0, nColdSolves = 0;   // solves with and without a stored basis
+	public long warmIterations = 0, coldIterations = 0;
+	public long updateNanos = 0, solveNanos = 0, dualNanos = 0;   // time spent in updateSubProblem with the warm start, sub.solve() and getDualSolution
+
+	private static class Basis {
+		IloCplex.BasisStatus[] cols;
+		IloCplex.BasisStatus[] rows;
+	}
+
+	/*
+	 * Right-hand sides of the rows in terms of the master variables, to decode
+	 * Farkas certificates: constant + capacity * use_DC[dc] (or use_RC[rc]).
+	 * Rows with a zero right-hand side are not in the map. Since CPLEX returns
+	 * the certificate in its own order, the map is keyed by the rows.
+	 */
+	private HashMap<IloConstraint, Rhs> rhs = new HashMap<IloConstraint, Rhs>();
+
+	private static class Rhs {
+		double constant;
+		int dc, rc;   // facility multiplying the capacity, -1 if none
+		double capacity;
+
+		Rhs(double constant, int dc, int rc, double capacity){
+			this.constant = constant;
+			this.dc = dc;
+			this.rc = rc;
+			this.capacity = capacity;
+		}
+	}
 
 	/**
 	 * Constructor.
@@ -82,7 +140,29 @@ public class BSHSub {
 			double[] fixedCostDC, double[] fixedCostRC, 
 			double[] PPDensity, double[] flowCost_plant_DC, double[][] flowCost_DC_customers, 
 			double[][] flowCost_customers_RC, double[] flowCost_RC_plant) throws IloException{
+		this(nDC, nRC, nCustomers, manCapacity, remanCapacity, sample, outSub, fixedCostDC, fixedCostRC,
+				PPDensity, flowCost_plant_DC, flowCost_DC_customers, flowCost_customers_RC, flowCost_RC_plant,
+				Environment.disposalCost);
+	}
 
+	/**
+	 * Constructor for the scenario of an instance.
+	 * @throws IloException if something makes CPLEX unhappy
+	 */
+	public BSHSub(ModelContext context, Triple sample, PrintStream outSub) throws IloException{
+		this(context.nDC, context.nRC, context.nCustomers, context.manCapacity, context.remanCapacity,
+				sample, outSub, context.fixedCostDC, context.fixedCostRC, context.PPDensity,
+				context.flowCost_plant_DC, context.flowCost_DC_customers, context.flowCost_customers_RC,
+				context.flowCost_RC_plant, context.disposalCost);
+	}
+
+	private BSHSub(int nDC, int nRC, int nCustomers, double manCapacity, double remanCapacity, 
+			Triple sample, PrintStream outSub,
+			double[] fixedCostDC, double[] fixedCostRC, 
+			double[] PPDensity, double[] flowCost_plant_DC, double[][] flowCost_DC_customers, 
+			double[][] flowCost_customers_RC, double[] flowCost_RC_plant, double disposalCost) throws IloException{
+
+		this.disposalCost = disposalCost;
 		nDistributionCenter = nDC;
 		nReturnCenter = nRC;
 		nMarket = nCustomers;
@@ -107,6 +187,7 @@ public class BSHSub {
 		this.flowCost_RC_plant = flowCost_RC_plant;
 		// record the PPDensity
 		this.PPDensity = PPDensity;
+		this.sample = sample;
 
 		buildSubProblem(sample, outSub);
 	}
@@ -115,6 +196,7 @@ public class BSHSub {
 	// build the sub problem with repsect to the sample and usedc userc
 	private void buildSubProblem(Triple sample, PrintStream outSub) throws IloException{
 		sub = new IloCplex();
+		ArrayList<IloRange> basisRows = new ArrayList<IloRange>();
 
 		double marketSize = sample.marketSize;
 		double ret = sample.ret;
@@ -134,15 +216,17 @@ public class BSHSub {
 		double I = (Environment.reservationPriceUB - Environment.reservationPriceLB)/marketSize;   //I=(resPriceUB - resPriceLB) / marketSize;
 		double manA = Environment.reservationPriceUB - Environment.manCost - Environment.holdingCost;
 		double remanA = Environment.remanDepreciation * Environment.reservationPriceUB - 
-				Environment.remanCost - Environment.holdingCost + Environment.disposalCost;
+				Environment.remanCost - Environment.holdingCost + disposalCost;
 
 		//minimize I * manQuantity * manQuantity + 2 * remanDepreciation * I * manQuantity * remanQuantity
 		//          + remanDepreciation * I * remanQuantity * remanQuantity
 		//          - manA * manQuantity - remanA * remanQuantity
 		//          + flowCost_plant_DC + flowCost_DC_customers + flowCost_customers_RC + flowCost_RC_plant
 		IloLQNumExpr objExpr = sub.lqNumExpr();
-		manQuantity = sub.numVar(0, capacity_DC[0], "manQuantity");    
-		remanQuantity = sub.numVar(0, capacity_DC[1], "remanQuantity");  
+		// no upper bounds: the rows cCapacity enforce the capacities, and unlike
+		// bounds their duals are in the optimality and feasibility cuts
+		manQuantity = sub.numVar(0, Double.MAX_VALUE, "manQuantity");    
+		remanQuantity = sub.numVar(0, Double.MAX_VALUE, "remanQuantity");  
 		objExpr.addTerm(-I, manQuantity, manQuantity);
 		objExpr.addTerm(-2 * Environment.remanDepreciation * I, manQuantity, remanQuantity);
 		objExpr.addTerm(-Environment.remanDepreciation * I, remanQuantity, remanQuantity);
@@ -186,36 +270,36 @@ public class BSHSub {
 			objExpr.addTerm(-flowCost_RC_plant[i], RC_plant[i]);
 		}
 
-		sub.addMaximize(objExpr, "operationalProfit");   
+		objective = sub.addMaximize(objExpr, "operationalProfit");   
 		for (int i = 0; i < nDistributionCenter; i++) {
 			objExpr.clear();
 			objExpr.addTerm(1, plant_DC[0][i]);
-			sub.addGe(objExpr, 0, "c_NonnegativityPlant_DC_" + i + "(n)");
+			basisRows.add(sub.addGe(objExpr, 0, "c_NonnegativityPlant_DC_" + i + "(n)"));
 			objExpr.clear();
 			objExpr.addTerm(1, plant_DC[1][i]);
-			sub.addGe(objExpr, 0, "c_NonnegativityPlant_DC_" + i + "(r)");
+			basisRows.add(sub.addGe(objExpr, 0, "c_NonnegativityPlant_DC_" + i + "(r)"));
 		}
 		for (int i = 0; i < nDistributionCenter; i++) {
 			for (int j = 0; j < nMarket; j++) { 
 				objExpr.clear();
 				objExpr.addTerm(1, DC_customers[0][i][j]);
-				sub.addGe(objExpr, 0, "c_NonnegativityDC_" + i + "Customer_" + j + "(n)");
+				basisRows.add(sub.addGe(objExpr, 0, "c_NonnegativityDC_" + i + "Customer_" + j + "(n)"));
 				objExpr.clear();
 				objExpr.addTerm(1, DC_customers[1][i][j]);
-				sub.addGe(objExpr, 0, "c_NonnegativityDC_" + i + "Customer_" + j + "(r)");
+				basisRows.add(sub.addGe(objExpr, 0, "c_NonnegativityDC_" + i + "Customer_" + j + "(r)"));
 			}
 		}
 		for (int i = 0; i < nMarket; i++) {
 			for (int j = 0; j < nReturnCenter; j++) {
 				objExpr.clear();
 				objExpr.addTerm(1, customers_RC[i][j]);
-				sub.addGe(objExpr, 0, "c_NonnegativityCustomers_" + i + "RC_" + j);
+				basisRows.add(sub.addGe(objExpr, 0, "c_NonnegativityCustomers_" + i + "RC_" + j));
 			}
 		}
 		for (int i = 0; i < nReturnCenter; i++) {
 			objExpr.clear();
 			objExpr.addTerm(1, RC_plant[i]);
-			sub.addGe(objExpr, 0, "c_NonnegativityRC_" + i + "_plant");
+			basisRows.add(sub.addGe(objExpr, 0, "c_NonnegativityRC_" + i + "_plant"));
 		}
 
 		// add capacity constraints to be satisfied -- record the constraints for use later
@@ -277,7 +361,7 @@ public class BSHSub {
 				objExpr.addTerm(-recoveryRate, customers_RC[j][i]);
 			}
 			objExpr.addTerm(1, RC_plant[i]);
-			sub.addLe(objExpr, 0,"flowBalance_RC_" + i);
+			basisRows.add(sub.addLe(objExpr, 0,"flowBalance_RC_" + i));
 		}
 
 		// manQuantity - \sum_j plant_DC[0][j][0] = 0
@@ -286,7 +370,7 @@ public class BSHSub {
 		for (int i = 0; i < nDistributionCenter; i++) {
 			objExpr.addTerm(-1, plant_DC[0][i]);	
 		}
-		sub.addEq(objExpr, 0, "flowBalance_plant(n)");	
+		basisRows.add(sub.addEq(objExpr, 0, "flowBalance_plant(n)"));	
 
 		// remanQuantity - \sum_j plant_DC[0][j][1] = 0
 		objExpr.clear();
@@ -294,7 +378,7 @@ public class BSHSub {
 		for (int i = 0; i < nDistributionCenter; i++) {
 			objExpr.addTerm(-1, plant_DC[1][i]);	
 		}
-		sub.addEq(objExpr, 0, "flowBalance_plant(r)");		
+		basisRows.add(sub.addEq(objExpr, 0, "flowBalance_plant(r)"));		
 
 		// plant_DC[l][i] - \sum_j DC_customers[l][i][j] = 0  for all i & l
 		for (int i = 0; i < nDistributionCenter; i++) {
@@ -303,7 +387,7 @@ public class BSHSub {
 			for (int j = 0; j < nMarket; j++) {	
 				objExpr.addTerm(-1, DC_customers[0][i][j]);
 			}
-			sub.addEq(objExpr, 0,"flowBalance_DC_" + i + "(n)");
+			basisRows.add(sub.addEq(objExpr, 0,"flowBalance_DC_" + i + "(n)"));
 		}
 		for (int i = 0; i < nDistributionCenter; i++) {
 			objExpr.clear();
@@ -311,7 +395,7 @@ public class BSHSub {
 			for (int j = 0; j < nMarket; j++) {	
 				objExpr.addTerm(-1, DC_customers[1][i][j]);
 			}
-			sub.addEq(objExpr, 0,"flowBalance_DC_" + i + "(r)");
+			basisRows.add(sub.addEq(objExpr, 0,"flowBalance_DC_" + i + "(r)"));
 		}
 
 		// PPDensity[j] * manQuantity - \sum_i DC_customers[i][j][1] = 0  for all j
@@ -321,7 +405,7 @@ public class BSHSub {
 			for (int i = 0; i < nDistributionCenter; i++) {	
 				objExpr.addTerm(-1, DC_customers[0][i][j]);
 			}
-			sub.addEq(objExpr, 0, "flowBalance_demand_" + j + "(n)");
+			basisRows.add(sub.addEq(objExpr, 0, "flowBalance_demand_" + j + "(n)"));
 		}
 		// PPDensity[j] * remanQuantity - \sum_i DC_customers[i][j][2] = 0  for all j
 		for (int j = 0; j < nMarket; j++) {
@@ -330,7 +414,7 @@ public class BSHSub {
 			for (int i = 0; i < nDistributionCenter; i++) {	
 				objExpr.addTerm(-1, DC_customers[1][i][j]);
 			}
-			sub.addEq(objExpr, 0, "flowBalance_demand_" + j + "(r)");
+			basisRows.add(sub.addEq(objExpr, 0, "flowBalance_demand_" + j + "(r)"));
 		}
 		// \sum_i customers_RC[j][i] = returns*PPDensity[j]   for all j
 		cFlowBalance_return = new IloRange[nMarket];
@@ -348,7 +432,63 @@ public class BSHSub {
 		for (int i = 0; i < nReturnCenter; i++) {
 			objExpr.addTerm(-1, RC_plant[i]);
 		}
-		sub.addEq(objExpr, 0, "flowBalance_RC_plant");
+		basisRows.add(sub.addEq(objExpr, 0, "flowBalance_RC_plant"));
+
+		// record all columns and rows for the warm start
+		for (int i = 0; i < 4; i++) {
+			basisRows.add(cCapacity[i]);
+		}
+		for (int i = 0; i < nDistributionCenter; i++) {
+			for (int j = 0; j < nMarket; j++) {
+				basisRows.add(cSupply_DC_new[i][j]);
+				basisRows.add(cSupply_DC_reman[i][j]);
+			}
+		}
+		for (int j = 0; j < nMarket; j++) {
+			for (int i = 0; i < nReturnCenter; i++) {
+				basisRows.add(cSupply_RC[j][i]);
+			}
+			basisRows.add(cFlowBalance_return[j]);
+		}
+		allRows = basisRows.toArray(new IloRange[basisRows.size()]);
+
+		// record the right-hand sides for the feasibility cuts
+		rhs.put(cCapacity[0], new Rhs(capacity_DC[0], -1, -1, 0));
+		rhs.put(cCapacity[1], new Rhs(capacity_DC[1], -1, -1, 0));
+		rhs.put(cCapacity[2], new Rhs(marketSize, -1, -1, 0));
+		rhs.put(cCapacity[3], new Rhs(recoveryRate*ret, -1, -1, 0));
+		for (int i = 0; i < nDistributionCenter; i++) {
+			for (int j = 0; j < nMarket; j++) {
+				rhs.put(cSupply_DC_new[i][j], new Rhs(0, i, -1, capacity_DC[0]));
+				rhs.put(cSupply_DC_reman[i][j], new Rhs(0, i, -1, capacity_DC[1]));
+			}
+		}
+		for (int j = 0; j < nMarket; j++) {
+			for (int i = 0; i < nReturnCenter; i++) {
+				rhs.put(cSupply_RC[j][i], new Rhs(0, -1, i, capacity_RC[i]));
+			}
+			rhs.put(cFlowBalance_return[j], new Rhs(ret*PPDensity[j], -1, -1, 0));
+		}
+		ArrayList<IloNumVar> basisVars = new ArrayList<IloNumVar>();
+		basisVars.add(manQuantity);
+		basisVars.add(remanQuantity);
+		for (int l = 0; l < 2; l++) {
+			for (int i = 0; i < nDistributionCenter; i++) {
+				basisVars.add(plant_DC[l][i]);
+				for (int j = 0; j < nMarket; j++) {
+					basisVars.add(DC_customers[l][i][j]);
+				}
+			}
+		}
+		for (int j = 0; j < nMarket; j++) {
+			for (int i = 0; i < nReturnCenter; i++) {
+				basisVars.add(customers_RC[j][i]);
+			}
+		}
+		for (int i = 0; i < nReturnCenter; i++) {
+			basisVars.add(RC_plant[i]);
+		}
+		allVars = basisVars.toArray(new IloNumVar[basisVars.size()]);
 
 		// disable presolving of the subproblem (if the presolver realizes the
 		// subproblem is infeasible, we do not get a dual ray)
@@ -369,7 +509,28 @@ public class BSHSub {
 //		sub.setParam(IloCplex.StringParam.WorkDir ,"/home/zhaofeng/BSH/model");
 	}
 
+	/**
+	 * Changes the disposal cost, which only moves the linear objective
+	 * coefficient of the remanufactured quantity. The stored bases stay
+	 * primal feasible and are kept for the next solves.
+	 * @throws IloException if something makes CPLEX unhappy
+	 */
+	public void setDisposalCost(double disposalCost) throws IloException{
+		this.disposalCost = disposalCost;
+		double remanA = Environment.remanDepreciation * Environment.reservationPriceUB - 
+				Environment.remanCost - Environment.holdingCost + disposalCost;
+		sub.setLinearCoef(objective, remanA, remanQuantity);
+	}
+
 	public void updateSubProblem(double[] udc, double[] urc) throws IloException{
+		updateSubProblem(new FacilityConfiguration(udc, urc));
+	}
+
+	/*
+	 * Only the supply rows of the facilities whose selection changed since the
+	 * last update are touched.
+	 */
+	private void updateSubProblem(FacilityConfiguration configuration) throws IloException{
 		// set the supply constraint right-hand sides in the subproblem
 //		cSupply_DC_new = new IloRange[nDistributionCenter][nMarket];
 //		for (int i = 0; i < nDistributionCenter; i++) {
@@ -393,16 +554,155 @@ public class BSHSub {
 //		}	
 		
 		for (int i = 0; i < nDistributionCenter; i++) {
+			boolean used = configuration.isDCUsed(i);
+			if(boundsConfiguration != null && boundsConfiguration.isDCUsed(i) == used) continue;
 			for(int j = 0; j < nMarket; j++){
-				cSupply_DC_new[i][j].setUB((udc[i] > 0.5) ? capacity_DC[0] : 0);  
-				cSupply_DC_reman[i][j].setUB((udc[i] > 0.5) ? capacity_DC[1] : 0);					
+				cSupply_DC_new[i][j].setUB(used ? capacity_DC[0] : 0);  
+				cSupply_DC_reman[i][j].setUB(used ? capacity_DC[1] : 0);					
 			}
 		}
-		for (int i = 0; i < nMarket; i++) {
-			for(int j = 0; j < nReturnCenter; j++){
-				cSupply_RC[i][j].setUB((urc[j] > 0.5) ? capacity_RC[j] : 0);
+		for(int j = 0; j < nReturnCenter; j++){
+			boolean used = configuration.isRCUsed(j);
+			if(boundsConfiguration != null && boundsConfiguration.isRCUsed(j) == used) continue;
+			for (int i = 0; i < nMarket; i++) {
+				cSupply_RC[i][j].setUB(used ? capacity_RC[j] : 0);
 			}
 		}
-		
+		boundsConfiguration = configuration;
+
+	}
+
+	/**
+	 * Updates the subproblem to the DC/RC selection and solves it, starting from
+	 * the stored basis of the nearest selection solved before (in Hamming distance).
+	 * @param udc DC used
+	 * @param urc RC used
+	 * @return the solution status
+	 * @throws IloException if something makes CPLEX unhappy
+	 */
+	public IloCplex.Status solve(double[] udc, double[] urc) throws IloException{
+		FacilityConfiguration configuration = new FacilityConfiguration(udc, urc);
+		long start = System.nanoTime();
+		updateSubProblem(configuration);
+		boolean warm = warmStart(configuration);
+		long solveStart = System.nanoTime();
+		sub.solve();
+		solveNanos += System.nanoTime() - solveStart;
+		updateNanos += solveStart - start;
+		IloCplex.Status status = sub.getStatus();
+		if(warm){
+			nWarmSolves++;
+			warmIterations += sub.getNiterations();
+		}
+		else{
+			nColdSolves++;
+			coldIterations += sub.getNiterations();
+		}
+		if(status == IloCplex.Status.Optimal){
+			saveBasis(configuration);
+			lastConfiguration = configuration;
+		}
+		else{
+			lastConfiguration = null;
+		}
+		return status;
+	}
+
+	// installs the basis of the nearest stored selection, returns false if there is none
+	private boolean warmStart(FacilityConfiguration configuration) throws IloException{
+		if(!basisAvailable || Environment.basisPoolSize <= 0 || basisPool.isEmpty()) return false;
+		FacilityConfiguration nearest = null;
+		int minDistance = Integer.MAX_VALUE;
+		for (FacilityConfiguration stored: basisPool.keySet()) {
+			int distance = stored.distance(configuration);
+			if(distance < minDistance){
+				minDistance = distance;
+				nearest = stored;
+			}
+		}
+		Basis basis = basisPool.get(nearest);
+		// CPLEX still holds the basis of the last solve, no need to load it again
+		if(!nearest.equals(lastConfiguration)){
+			sub.setBasisStatuses(allVars, basis.cols, allRows, basis.rows);
+		}
+		return true;
+	}
+
+	private void saveBasis(FacilityConfiguration configuration){
+		if(!basisAvailable || Environment.basisPoolSize <= 0) return;
+		try {
+			Basis basis = new Basis();
+			basis.cols = sub.getBasisStatuses(allVars);
+			basis.rows = sub.getBasisStatuses(allRows);
+			basisPool.put(configuration, basis);
+		} catch (IloException e) {
+			// no basis, e.g. the QP was solved by barrier without crossover
+			basisAvailable = false;
+			basisPool.clear();
+		}
+	}
+
+	/**
+	 * Builds a feasibility cut from a Farkas certificate of the subproblem,
+	 * which must be infeasible at the current selection. The subproblem is
+	 * solved again without presolve, otherwise CPLEX gives no dual ray.
+	 * @return the cut, whose right-hand side is <= 0 at every selection for
+	 *         which the subproblem is feasible; null if CPLEX has no certificate
+	 * @throws IloException if something makes CPLEX unhappy
+	 */
+	public BendersCut feasibilityCut() throws IloException{
+		sub.setParam(IloCplex.BooleanParam.PreInd, false);
+		lastConfiguration = null;
+		try {
+			sub.solve();
+			if(sub.getStatus() != IloCplex.Status.Infeasible) return null;
+			IloConstraint[] constraints = new IloConstraint[allRows.length];
+			double[] coefficients = new double[allRows.length];
+			sub.dualFarkas(constraints, coefficients);
+			BendersCut cut = new BendersCut(nDistributionCenter, nReturnCenter);
+			for (int i = 0; i < constraints.length; i++) {
+				Rhs r = rhs.get(constraints[i]);
+				if(r == null) continue;
+				cut.constant += coefficients[i] * r.constant;
+				if(r.dc >= 0) cut.coefDC[r.dc] += coefficients[i] * r.capacity;
+				if(r.rc >= 0) cut.coefRC[r.rc] += coefficients[i] * r.capacity;
+			}
+			return cut;
+		} catch (IloException e) {
+			// no certificate, e.g. the infeasibility was not proven by the simplex
+			return null;
+		} finally {
+			sub.setParam(IloCplex.BooleanParam.PreInd, true);
+		}
+	}
+
+	/**
+	 * Reads the production quantities and the duals needed by the optimality cut.
+	 * The subproblem must have been solved to optimality.
+	 * @return the dual solution of the subproblem
+	 * @throws IloException if CPLEX has no solution available
+	 */
+	public DualSolution getDualSolution() throws IloException{
+		long start = System.nanoTime();
+		double q_new = sub.getValue(manQuantity);
+		double q_reman = sub.getValue(remanQuantity);
+		double[] gamma = sub.getDuals(cCapacity);
+		double[][] epsilon_DC_new = new double[nDistributionCenter][nMarket];
+		for(int i = 0 ; i < nDistributionCenter; i++){
+			epsilon_DC_new[i] = sub.getDuals(cSupply_DC_new[i]);
+		}
+		double[][] epsilon_DC_reman = new double[nDistributionCenter][nMarket];
+		for(int i = 0 ; i < nDistributionCenter; i++){
+			epsilon_DC_reman[i] = sub.getDuals(cSupply_DC_reman[i]);
+		}
+		double[][] epsilon_RC = new double[nMarket][nReturnCenter];
+		for(int i = 0 ; i < nMarket; i++){
+			epsilon_RC[i] = sub.getDuals(cSupply_RC[i]);
+		}
+		double[] chi = sub.getDuals(cFlowBalance_return);
+		DualSolution dual = new DualSolution(q_new,q_reman,gamma,epsilon_DC_new, epsilon_DC_reman,
+				epsilon_RC, chi);
+		dualNanos += System.nanoTime() - start;
+		return dual;
 	}
 }
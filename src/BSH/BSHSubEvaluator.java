@@ -0,0 +1,489 @@
+/*
+ * This class solves the CLSC subproblem of one scenario for a fixed DC/RC
+ * selection in plain Java, without building a CPLEX model.
+ */
+package BSH;
+
+import ilog.cplex.IloCplex;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import utils.Environment;
+import utils.ModelContext;
+import utils.Triple;
+
+/**
+ * Once use_DC/use_RC are fixed the subproblem of BSHSub decomposes:
+ *
+ * Forward: the supply rows of the open DCs are never binding, so every
+ * customer j is served from its cheapest open DC at unit cost
+ * c_j = min_i (flowCost_plant_DC[i] + flowCost_DC_customers[i][j]),
+ * and both products cost cF = \sum_j PPDensity[j] * c_j per unit.
+ *
+ * Reverse: the returns ret*PPDensity[j] of customer j have to be collected.
+ * A returned unit which is not remanufactured goes to the RC with the lowest
+ * collection cost a_j; a unit which is remanufactured goes to the RC
+ * minimising b_j = flowCost_customers_RC[j][k] + recoveryRate*flowCost_RC_plant[k].
+ * Producing remanQuantity therefore uses the customers with the smallest
+ * premium b_j - a_j first, and the reverse cost G(remanQuantity) is convex
+ * and piecewise linear.
+ *
+ * What is left is a concave quadratic in manQuantity/remanQuantity minus
+ * G(remanQuantity) under the four capacity rows; it is maximised on every
+ * linear piece of G over the feasible polygon.
+ *
+ * The duals are built from the KKT conditions of that solution and have the
+ * same meaning (and sign) as the duals CPLEX returns for the rows of BSHSub,
+ * so they can be used in the optimality cut directly.
+ *
+ * @author Feng Zhao (zhaofeng@nus.edu.sg)
+ */
+public class BSHSubEvaluator {
+	private int nDistributionCenter;      // number of DCs
+	private int nReturnCenter;      // number of RCs
+	private int nMarket;       // number of customers
+
+	private double[] capacity_DC;
+	private double[] flowCost_plant_DC;
+	private double[][] flowCost_DC_customers;
+	private double[][] flowCost_customers_RC;
+	private double[] flowCost_RC_plant;
+	private double[] PPDensity;
+	private double disposalCost;
+
+	private AtomicInteger nChecks = new AtomicInteger();
+	private AtomicInteger nMismatches = new AtomicInteger();
+
+	/**
+	 * The solution of one scenario subproblem.
+	 */
+	public static class Result {
+		public IloCplex.Status status;
+		public double objValue;
+		public DualSolution dual;
+		public double manQuantity, remanQuantity;
+		// the flows, only filled in on request
+		public double[][] plant_DC;
+		public double[][][] DC_customers;
+		public double[][] customers_RC;
+		public double[] RC_plant;
+	}
+
+	public BSHSubEvaluator(int nDC, int nRC, int nCustomers, double manCapacity, double remanCapacity,
+			double[] PPDensity, double[] flowCost_plant_DC, double[][] flowCost_DC_customers,
+			double[][] flowCost_customers_RC, double[] flowCost_RC_plant){
+		this(nDC, nRC, nCustomers, manCapacity, remanCapacity, PPDensity, flowCost_plant_DC,
+				flowCost_DC_customers, flowCost_customers_RC, flowCost_RC_plant, Environment.disposalCost);
+	}
+
+	public BSHSubEvaluator(ModelContext context){
+		this(context.nDC, context.nRC, context.nCustomers, context.manCapacity, context.remanCapacity,
+				context.PPDensity, context.flowCost_plant_DC, context.flowCost_DC_customers,
+				context.flowCost_customers_RC, context.flowCost_RC_plant, context.disposalCost);
+	}
+
+	BSHSubEvaluator(int nDC, int nRC, int nCustomers, double manCapacity, double remanCapacity,
+			double[] PPDensity, double[] flowCost_plant_DC, double[][] flowCost_DC_customers,
+			double[][] flowCost_customers_RC, double[] flowCost_RC_plant, double disposalCost){
+		this.disposalCost = disposalCost;
+		nDistributionCenter = nDC;
+		nReturnCenter = nRC;
+		nMarket = nCustomers;
+		this.capacity_DC = new double[2];
+		capacity_DC[0] = manCapacity;
+		capacity_DC[1] = remanCapacity;
+		this.flowCost_plant_DC = flowCost_plant_DC;
+		this.flowCost_DC_customers = flowCost_DC_customers;
+		this.flowCost_customers_RC = flowCost_customers_RC;
+		this.flowCost_RC_plant = flowCost_RC_plant;
+		this.PPDensity = PPDensity;
+	}
+
+	/**
+	 * Changes the disposal cost of the next evaluations.
+	 */
+	public void setDisposalCost(double disposalCost){
+		this.disposalCost = disposalCost;
+	}
+
+	/**
+	 * Solves the subproblem of one scenario.
+	 * @param sample the scenario
+	 * @param udc DC used
+	 * @param urc RC used
+	 * @param withFlows whether the flows should be filled in
+	 * @return the solution, with status Infeasible if the returns cannot be collected
+	 */
+	public Result evaluate(Triple sample, double[] udc, double[] urc, boolean withFlows){
+		Result res = new Result();
+		double marketSize = sample.marketSize;
+		double ret = sample.ret;
+		double recoveryRate = sample.recoveryRate;
+		double d = Environment.remanDepreciation;
+		double I = (Environment.reservationPriceUB - Environment.reservationPriceLB)/marketSize;
+		double manA = Environment.reservationPriceUB - Environment.manCost - Environment.holdingCost;
+		double remanA = Environment.remanDepreciation * Environment.reservationPriceUB -
+				Environment.remanCost - Environment.holdingCost + disposalCost;
+		double tol = 1e-9 * Math.max(1, marketSize);
+
+		// forward: the cheapest open DC of every customer
+		boolean anyDC = false;
+		for (int i = 0; i < nDistributionCenter; i++) {
+			if(udc[i] > 0.5) anyDC = true;
+		}
+		double[] cMin = new double[nMarket];   // cheapest delivery cost over all DCs
+		double[] alpha = new double[nMarket];   // cheapest delivery cost over the open DCs
+		int[] bestDC = new int[nMarket];
+		double cF = 0, cFMin = 0;
+		for (int j = 0; j < nMarket; j++) {
+			cMin[j] = Double.POSITIVE_INFINITY;
+			alpha[j] = Double.POSITIVE_INFINITY;
+			bestDC[j] = -1;
+			for (int i = 0; i < nDistributionCenter; i++) {
+				double cost = flowCost_plant_DC[i] + flowCost_DC_customers[i][j];
+				if(cost < cMin[j]) cMin[j] = cost;
+				if(udc[i] > 0.5 && cost < alpha[j]){
+					alpha[j] = cost;
+					bestDC[j] = i;
+				}
+			}
+			cFMin += PPDensity[j] * cMin[j];
+			if(anyDC) cF += PPDensity[j] * alpha[j];
+		}
+
+		// reverse: collection cost a_j and remanufacturing cost b_j of every customer
+		double[] returns = new double[nMarket];
+		double[] a = new double[nMarket];
+		double[] b = new double[nMarket];
+		int[] rcA = new int[nMarket];
+		int[] rcB = new int[nMarket];
+		double totalReturns = 0, collectionCost = 0;
+		for (int j = 0; j < nMarket; j++) {
+			returns[j] = ret * PPDensity[j];
+			totalReturns += returns[j];
+			a[j] = b[j] = Double.POSITIVE_INFINITY;
+			rcA[j] = rcB[j] = -1;
+			for (int k = 0; k < nReturnCenter; k++) {
+				if(urc[k] <= 0.5) continue;
+				if(flowCost_customers_RC[j][k] < a[j]){
+					a[j] = flowCost_customers_RC[j][k];
+					rcA[j] = k;
+				}
+				double cost = flowCost_customers_RC[j][k] + recoveryRate * flowCost_RC_plant[k];
+				if(cost < b[j]){
+					b[j] = cost;
+					rcB[j] = k;
+				}
+			}
+			if(returns[j] > 0){
+				if(rcA[j] < 0){
+					// the returns of this customer cannot be collected
+					res.status = IloCplex.Status.Infeasible;
+					return res;
+				}
+				collectionCost += returns[j] * a[j];
+			}
+		}
+
+		// the pieces of G: customers by increasing premium
+		Integer[] order = new Integer[nMarket];
+		int nPieces = 0;
+		for (int j = 0; j < nMarket; j++) {
+			if(returns[j] > 0) order[nPieces++] = j;
+		}
+		final double[] premium = new double[nMarket];
+		for (int j = 0; j < nMarket; j++) {
+			premium[j] = (returns[j] > 0) ? b[j] - a[j] : 0;
+		}
+		Arrays.sort(order, 0, nPieces, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer o1, Integer o2) {
+				return Double.compare(premium[o1], premium[o2]);
+			}
+		});
+		// piece m covers remanQuantity in [breaks[m], breaks[m+1]] with slope slopes[m]
+		double[] breaks = new double[nPieces + 1];
+		double[] slopes = new double[Math.max(1, nPieces)];
+		double[] base = new double[Math.max(1, nPieces)];   // G(breaks[m]) - collectionCost
+		for (int m = 0; m < nPieces; m++) {
+			int j = order[m];
+			breaks[m + 1] = breaks[m] + recoveryRate * returns[j];
+			slopes[m] = (recoveryRate > 0) ? premium[j] / recoveryRate : 0;
+			if(m > 0) base[m] = base[m - 1] + slopes[m - 1] * (breaks[m] - breaks[m - 1]);
+		}
+		if(nPieces == 0){
+			nPieces = 1;
+			breaks = new double[] {0, 0};
+		}
+
+		// bounds of the production quantities
+		double maxMan = anyDC ? capacity_DC[0] : 0;
+		double maxReman = anyDC ? Math.min(capacity_DC[1], Math.min(recoveryRate * ret, breaks[nPieces])) : 0;
+
+		// maximise on every piece of G
+		double bestValue = Double.NEGATIVE_INFINITY;
+		double x = 0, y = 0;
+		int piece = 0;
+		double aMan = manA - cF;
+		for (int m = 0; m < nPieces; m++) {
+			double lo = breaks[m], hi = Math.min(breaks[m + 1], maxReman);
+			if(lo > hi + tol || lo > marketSize + tol) break;
+			hi = Math.max(lo, hi);
+			double bReman = remanA - cF - slopes[m];
+			double[] xy = maximise(I, d, aMan, bReman, maxMan, lo, hi, marketSize);
+			double value = quadratic(I, d, aMan, bReman, xy[0], xy[1]) - (base[m] - slopes[m] * breaks[m]);
+			if(value > bestValue + tol){
+				bestValue = value;
+				x = xy[0];
+				y = xy[1];
+				piece = m;
+			}
+		}
+
+		// how much of the returns of each customer is remanufactured
+		double[] used = new double[nMarket];
+		double remaining = (recoveryRate > 0) ? y / recoveryRate : 0;
+		double premiumCost = 0;
+		for (int m = 0; m < nPieces && remaining > 0; m++) {
+			Integer j = order[m];
+			if(j == null) break;
+			used[j] = Math.min(returns[j], remaining);
+			remaining -= used[j];
+			premiumCost += used[j] * premium[j];
+		}
+
+		res.status = IloCplex.Status.Optimal;
+		res.manQuantity = x;
+		res.remanQuantity = y;
+		res.objValue = -I * x * x - 2 * d * I * x * y - d * I * y * y
+				+ manA * x + remanA * y - cF * (x + y) - collectionCost - premiumCost;
+		res.dual = dualSolution(I, d, manA, remanA, marketSize, ret, recoveryRate, udc, urc,
+				x, y, piece, breaks, slopes, nPieces, cF, cFMin, cMin, alpha, returns, tol);
+		if(withFlows){
+			fillFlows(res, recoveryRate, bestDC, returns, used, rcA, rcB);
+		}
+		return res;
+	}
+
+	/*
+	 * Derives the duals of the rows of BSHSub from the KKT conditions at the
+	 * solution (x, y) = (manQuantity, remanQuantity).
+	 */
+	private DualSolution dualSolution(double I, double d, double manA, double remanA, double marketSize,
+			double ret, double recoveryRate, double[] udc, double[] urc, double x, double y, int piece,
+			double[] breaks, double[] slopes, int nPieces, double cF, double cFMin, double[] cMin,
+			double[] alpha, double[] returns, double tol){
+		double[] gamma = new double[4];
+		double gradMan = manA - 2 * I * x - 2 * d * I * y;
+		double gradReman = remanA - 2 * d * I * x - 2 * d * I * y;
+
+		// the subgradients of G at y
+		double gLeft = slopes[piece], gRight = slopes[piece];
+		for (int m = 0; m <= nPieces; m++) {
+			if(Math.abs(y - breaks[m]) <= tol){
+				gLeft = (m == 0) ? Double.NEGATIVE_INFINITY : slopes[m - 1];
+				gRight = (m == nPieces) ? slopes[nPieces - 1] : slopes[m];
+				break;
+			}
+		}
+
+		double sigma;  // value of a remanufactured unit at the plant
+		double[] alphaMan = new double[nMarket];
+		double[] alphaReman = new double[nMarket];
+		if(!anyOpen(udc)){
+			// no DC open: the demand rows force zero production, price the demand
+			// as if the cheapest DC were open and raise it until producing does not pay
+			sigma = clamp(gradReman - cFMin, gLeft, gRight);
+			double shiftMan = Math.max(0, gradMan - cFMin);
+			double shiftReman = Math.max(0, gradReman - sigma - cFMin);
+			for (int j = 0; j < nMarket; j++) {
+				alphaMan[j] = cMin[j] + shiftMan;
+				alphaReman[j] = cMin[j] + shiftReman;
+			}
+		}
+		else{
+			boolean[] active = new boolean[4];
+			active[0] = x >= capacity_DC[0] - tol;
+			active[1] = y >= capacity_DC[1] - tol;
+			active[2] = x + y >= marketSize - tol;
+			active[3] = y >= recoveryRate * ret - tol;
+			boolean lowerMan = x <= tol, lowerReman = y <= tol;
+			double hMan = gradMan - cF, hReman = gradReman - cF;
+
+			// find the dual of the market size row (shared by both quantities)
+			double[] candidates = {0, hMan, hReman - gRight, hReman - gLeft, Math.min(hMan, hReman - gLeft)};
+			double bestShared = 0, bestViolation = Double.POSITIVE_INFINITY;
+			for (double t: candidates) {
+				if(Double.isInfinite(t) || Double.isNaN(t)) continue;
+				t = Math.max(0, t);
+				if(t > 0 && !active[2]) continue;
+				double s = clamp(hReman - t, gLeft, gRight);
+				double violation = violation(hMan - t, active[0], lowerMan, tol)
+						+ violation(hReman - t - s, active[1] || active[3], lowerReman, tol);
+				if(violation < bestViolation){
+					bestViolation = violation;
+					bestShared = t;
+				}
+			}
+			gamma[2] = bestShared;
+			sigma = clamp(hReman - bestShared, gLeft, gRight);
+			if(active[0]) gamma[0] = Math.max(0, hMan - bestShared);
+			double rest = Math.max(0, hReman - bestShared - sigma);
+			if(active[3]) gamma[3] = rest;
+			else if(active[1]) gamma[1] = rest;
+			for (int j = 0; j < nMarket; j++) {
+				alphaMan[j] = alpha[j];
+				alphaReman[j] = alpha[j];
+			}
+		}
+
+		// supply rows of the DCs: only the closed DCs have a positive dual
+		double[][] epsilon_DC_new = new double[nDistributionCenter][nMarket];
+		double[][] epsilon_DC_reman = new double[nDistributionCenter][nMarket];
+		for (int i = 0; i < nDistributionCenter; i++) {
+			if(udc[i] > 0.5) continue;
+			for (int j = 0; j < nMarket; j++) {
+				double cost = flowCost_plant_DC[i] + flowCost_DC_customers[i][j];
+				epsilon_DC_new[i][j] = Math.max(0, alphaMan[j] - cost);
+				epsilon_DC_reman[i][j] = Math.max(0, alphaReman[j] - cost);
+			}
+		}
+
+		// reverse: value of the recovery capacity of each RC, then of the returns
+		double[] rho = new double[nReturnCenter];
+		for (int k = 0; k < nReturnCenter; k++) {
+			rho[k] = Math.max(0, sigma - flowCost_RC_plant[k]);
+		}
+		double[] chi = new double[nMarket];
+		double[][] epsilon_RC = new double[nMarket][nReturnCenter];
+		for (int j = 0; j < nMarket; j++) {
+			chi[j] = Double.NEGATIVE_INFINITY;
+			for (int k = 0; k < nReturnCenter; k++) {
+				if(urc[k] > 0.5){
+					chi[j] = Math.max(chi[j], recoveryRate * rho[k] - flowCost_customers_RC[j][k]);
+				}
+			}
+			if(Double.isInfinite(chi[j])) chi[j] = 0;   // no return to collect from this customer
+			for (int k = 0; k < nReturnCenter; k++) {
+				if(urc[k] <= 0.5){
+					epsilon_RC[j][k] = Math.max(0, recoveryRate * rho[k] - flowCost_customers_RC[j][k] - chi[j]);
+				}
+			}
+		}
+		return new DualSolution(x, y, gamma, epsilon_DC_new, epsilon_DC_reman, epsilon_RC, chi);
+	}
+
+	private void fillFlows(Result res, double recoveryRate, int[] bestDC, double[] returns,
+			double[] used, int[] rcA, int[] rcB){
+		res.plant_DC = new double[2][nDistributionCenter];
+		res.DC_customers = new double[2][nDistributionCenter][nMarket];
+		res.customers_RC = new double[nMarket][nReturnCenter];
+		res.RC_plant = new double[nReturnCenter];
+		double[] quantity = {res.manQuantity, res.remanQuantity};
+		for (int l = 0; l < 2; l++) {
+			for (int j = 0; j < nMarket; j++) {
+				if(bestDC[j] < 0) continue;
+				res.DC_customers[l][bestDC[j]][j] = PPDensity[j] * quantity[l];
+				res.plant_DC[l][bestDC[j]] += PPDensity[j] * quantity[l];
+			}
+		}
+		for (int j = 0; j < nMarket; j++) {
+			if(returns[j] <= 0) continue;
+			res.customers_RC[j][rcA[j]] += returns[j] - used[j];
+			res.customers_RC[j][rcB[j]] += used[j];
+			res.RC_plant[rcB[j]] += recoveryRate * used[j];
+		}
+	}
+
+	/*
+	 * Maximises -I x^2 - 2dI xy - dI y^2 + aMan x + bReman y over
+	 * 0 <= x <= maxMan, lo <= y <= hi, x + y <= marketSize. The function is
+	 * concave, so the maximum is the stationary point if it is feasible and
+	 * the best of the maxima on the edges otherwise.
+	 */
+	private static double[] maximise(double I, double d, double aMan, double bReman,
+			double maxMan, double lo, double hi, double marketSize){
+		if(d < 1){
+			double x = (aMan - bReman) / (2 * I * (1 - d));
+			double y = bReman / (2 * d * I) - x;
+			if(x >= 0 && x <= maxMan && y >= lo && y <= hi && x + y <= marketSize){
+				return new double[] {x, y};
+			}
+		}
+		// edges as (x0, y0) + t (dx, dy) for t in [tLo, tHi]
+		double[][] edges = {
+				{0, 0, 0, 1, lo, Math.min(hi, marketSize)},
+				{maxMan, 0, 0, 1, lo, Math.min(hi, marketSize - maxMan)},
+				{0, lo, 1, 0, 0, Math.min(maxMan, marketSize - lo)},
+				{0, hi, 1, 0, 0, Math.min(maxMan, marketSize - hi)},
+				{marketSize, 0, -1, 1, Math.max(lo, marketSize - maxMan), Math.min(hi, marketSize)}};
+		double[] best = {0, lo};
+		double bestValue = Double.NEGATIVE_INFINITY;
+		for (double[] e: edges) {
+			if(e[4] > e[5]) continue;
+			double quad = -I * e[2] * e[2] - 2 * d * I * e[2] * e[3] - d * I * e[3] * e[3];
+			double lin = -2 * I * e[0] * e[2] - 2 * d * I * (e[0] * e[3] + e[1] * e[2])
+					- 2 * d * I * e[1] * e[3] + aMan * e[2] + bReman * e[3];
+			double t;
+			if(quad < 0) t = clamp(-lin / (2 * quad), e[4], e[5]);
+			else t = (quad * e[5] * e[5] + lin * e[5] > quad * e[4] * e[4] + lin * e[4]) ? e[5] : e[4];
+			double x = e[0] + t * e[2], y = e[1] + t * e[3];
+			double value = quadratic(I, d, aMan, bReman, x, y);
+			if(value > bestValue){
+				bestValue = value;
+				best[0] = x;
+				best[1] = y;
+			}
+		}
+		return best;
+	}
+
+	private static double quadratic(double I, double d, double aMan, double bReman, double x, double y){
+		return -I * x * x - 2 * d * I * x * y - d * I * y * y + aMan * x + bReman * y;
+	}
+
+	private static double clamp(double v, double lo, double hi){
+		return Math.max(lo, Math.min(hi, v));
+	}
+
+	/*
+	 * The part of a stationarity residual that cannot be explained by an
+	 * active upper row (positive residual) or an active lower bound (negative).
+	 */
+	private static double violation(double residual, boolean upperActive, boolean lowerActive, double tol){
+		if(residual > tol && !upperActive) return residual;
+		if(residual < -tol && !lowerActive) return -residual;
+		return 0;
+	}
+
+	private static boolean anyOpen(double[] use){
+		for (double u: use) {
+			if(u > 0.5) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Compares the objective value of a scenario with the value CPLEX found and
+	 * reports a mismatch on stderr.
+	 * @return true if both values agree
+	 */
+	public boolean check(double value, double cplexValue, String where){
+		nChecks.incrementAndGet();
+		if(Math.abs(value - cplexValue) <= 1e-6 * Math.max(1, Math.abs(cplexValue))) return true;
+		nMismatches.incrementAndGet();
+		System.err.println("!!! BSHSubEvaluator mismatch in " + where + ": " + value
+				+ " instead of " + cplexValue);
+		return false;
+	}
+
+	public int getNChecks(){
+		return nChecks.get();
+	}
+
+	public int getNMismatches(){
+		return nMismatches.get();
+	}
+}
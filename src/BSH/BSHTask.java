@@ -1,14 +1,28 @@
 package BSH;
 
+import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import ilog.concert.IloException;
+import ilog.cplex.IloCplex;
 import utils.Environment;
 import utils.MatrixHelper;
+import utils.ModelContext;
 import utils.Monitor;
+import utils.RandomStream;
+import utils.RunningStat;
 import utils.SAA;
+import utils.ScenarioStream;
 import utils.Triple;
 
 /**
@@ -33,15 +47,43 @@ public class BSHTask {
 
 
 	private PrintStream out = null;
+	private ModelContext context;   // the instance
 
 	private double fval_mean = 0, fval_var = 0;
 	private ArrayList<Double> fvals = null;
-	private HashSet<PrimalSolution> solutions = new HashSet<PrimalSolution>();
+	private ArrayList<Double> upperBounds = null;   // step one optima net of the return costs of their samples
+	private OptimalityGap gap = null;   // of the last step two
+	private boolean estimateGap = false;   // estimate the gap after every step two, set by runAdaptive
+	// step one solutions by selection, a selection found by several replications is evaluated once
+	private LinkedHashMap<FacilityConfiguration, PrimalSolution> solutions = 
+			new LinkedHashMap<FacilityConfiguration, PrimalSolution>();
 	private ArrayList<PrimalSolution> solutionList = new ArrayList<PrimalSolution>();
 	private long[] times = null;
+	private BSH[] models = null;   // step one models kept between runs, null if they are built for every run
+	private PrimalSolution finalSolution = null;   // candidate chosen by the last step two
+	private SAA stepOneSAA = null;   // samples of the kept models
+	private RandomStream stepOneStream = null;   // stream of the step one samples, kept by runAdaptive while N stays
+	private DualPool[] pools = null;   // dual pools of the last step one by replication, kept by runAdaptive
+	private int nSkipped = 0;   // replications the last step one did not solve
+	private BSH[] running = null;   // models of the parallel step one by replication, also the lock of stopped
+	private boolean stopped = false;   // the parallel step one converged, the replications still running are aborted
+	private AtomicInteger nAborted = new AtomicInteger();   // replications aborted by the convergence
+	private SAA.Sampling sampling = Environment.sampling;   // sampling of both steps
+	private RandomStream random;   // the samples of every step are drawn from a stream split from it
 	public BSHTask(int M, int N, int Nprim, double minMarket, double medianMarket, double maxMarket,
 			double minReturn, double medianReturn, double maxReturn, 
 			double minRate, double medianRate, double maxRate, PrintStream out){
+		this(ModelContext.fromEnvironment(), M, N, Nprim, minMarket, medianMarket, maxMarket,
+				minReturn, medianReturn, maxReturn, minRate, medianRate, maxRate, out);
+	}
+
+	/**
+	 * Constructor for an instance, independent of the instance loaded in Environment.
+	 */
+	public BSHTask(ModelContext context, int M, int N, int Nprim, double minMarket, double medianMarket, double maxMarket,
+			double minReturn, double medianReturn, double maxReturn, 
+			double minRate, double medianRate, double maxRate, PrintStream out){
+		this.context = context;
 		this.M = M;
 		this.N = N;
 		this.Nprim = Nprim;
@@ -60,11 +102,164 @@ public class BSHTask {
 
 		this.times = new long[M];
 		this.out = out;
+		setSeed(Environment.seed != -1 ? Environment.seed : RandomStream.randomSeed());
+	}
+
+	/**
+	 * Sets the master seed of the samples: the same seed and settings give
+	 * the same samples in every run, whatever the number of threads.
+	 */
+	public void setSeed(long seed){
+		System.out.println("SAA seed " + seed);
+		random = new RandomStream(seed);
 	}
 
 	public void run() throws IloException{
 		stepOne();
-		if(Nprim!=0) stepTwo();
+		if(Nprim!=0){
+			ArrayList<PrimalSolution> candidates = new ArrayList<PrimalSolution>(solutions.values());
+			System.out.println(candidates.size() + " distinct candidates out of " + M + " replications");
+			stepTwo(candidates);
+		}
+	}
+
+	/**
+	 * Runs the task, doubling the sample sizes until the optimality gap
+	 * bound (see OptimalityGap) is at most relativeGap of the profit, or
+	 * after Environment.adaptiveRounds runs. Every round doubles the size
+	 * with the largest share of the bound: N if the gap estimate itself
+	 * dominates (the bias of the step one optima), otherwise M or Nprim,
+	 * whichever mean has the larger variance. While N stays, replication i
+	 * keeps its step one samples over the rounds and its model is seeded
+	 * with the dual pool of the last round. Only the line of the last
+	 * run is written. Nprim must be positive.
+	 * @throws IloException if something makes CPLEX unhappy
+	 */
+	public void runAdaptive(double relativeGap) throws IloException{
+		PrintStream target = out;
+		ByteArrayOutputStream line = null;
+		estimateGap = true;
+		pools = new DualPool[M];
+		try {
+			for(int round = 1; ; round++){
+				line = new ByteArrayOutputStream();
+				out = new PrintStream(line, true);
+				run();
+				System.out.println("round " + round + ", M " + M + ", N " + N + ", Nprim " + Nprim + ": " + gap);
+				if(gap == null || gap.getRelativeBound() <= relativeGap || round >= Environment.adaptiveRounds) break;
+				grow();
+			}
+		} finally {
+			out = target;
+			estimateGap = false;
+			pools = null;
+			stepOneStream = null;
+		}
+		out.print(line.toString());
+	}
+
+	private void grow() throws IloException{
+		// the kept models belong to the old sizes, they are released before M changes
+		boolean keep = models != null;
+		if(keep){
+			clear();
+			stepOneSAA = null;
+		}
+		if(M < 2 || (gap.upperVar >= gap.lowerVar && gap.gap <= gap.halfWidth)){
+			M *= 2;
+		}
+		else if(gap.gap > gap.halfWidth){
+			N *= 2;
+			// new samples, the pools of the old ones do not fit
+			stepOneStream = null;
+			Arrays.fill(pools, null);
+		}
+		else{
+			Nprim *= 2;
+		}
+		times = new long[M];
+		pools = Arrays.copyOf(pools, M);
+		if(keep) models = new BSH[M];
+	}
+
+	/**
+	 * @return the number of replications the last step one stopped before, see Environment.stepOneStable
+	 */
+	public int getNSkippedReplications(){
+		return nSkipped;
+	}
+
+	/**
+	 * @return the optimality gap of the last step two, null before
+	 */
+	public OptimalityGap getOptimalityGap(){
+		return gap;
+	}
+
+	/**
+	 * Runs step two alone for a candidate known from another run, e.g. at
+	 * another disposal cost, and writes the same line as run. The price of
+	 * the new product is the one of the candidate's own step one solution.
+	 * @throws IloException if something makes CPLEX unhappy
+	 */
+	public void evaluate(PrimalSolution candidate) throws IloException{
+		ArrayList<PrimalSolution> candidates = new ArrayList<PrimalSolution>();
+		candidates.add(candidate);
+		// there is no step one to bound the gap with
+		upperBounds = null;
+		stepTwo(candidates);
+	}
+
+	/**
+	 * @return the candidate chosen by the last step two, null before
+	 */
+	public PrimalSolution getFinalSolution(){
+		return finalSolution;
+	}
+
+	/**
+	 * Changes how the samples of both steps are drawn, e.g. SAA.Sampling.LHS
+	 * to reach the same confidence with fewer scenarios.
+	 */
+	public void setSampling(SAA.Sampling sampling){
+		this.sampling = sampling;
+	}
+
+	/**
+	 * Changes the stream the step two results are written to.
+	 */
+	public void setOut(PrintStream out){
+		this.out = out;
+	}
+
+	/**
+	 * Keeps the step one models after every run, so a run after
+	 * setDisposalCost updates them in place and warm starts them instead of
+	 * building and solving them from scratch. They keep the step one samples
+	 * of the first run; the step two samples are drawn again in every run.
+	 * The models are released by clear.
+	 */
+	public void keepModels(){
+		if(models == null) models = new BSH[M];
+	}
+
+	/**
+	 * Changes the disposal cost of the next run.
+	 */
+	public void setDisposalCost(double disposalCost){
+		context = context.withDisposalCost(disposalCost);
+	}
+
+	/**
+	 * Releases the step one models kept by keepModels.
+	 * @throws IloException if something makes CPLEX unhappy
+	 */
+	public void clear() throws IloException{
+		if(models == null) return;
+		for (int i = 0; i < models.length; i++) {
+			if(models[i] != null) models[i].clear();
+			models[i] = null;
+		}
 	}
 
 
@@ -80,38 +275,103 @@ public class BSHTask {
 		//				medianMarket*Environment.PPDensitySum,minReturn*Environment.PPDensitySum,
 		//				maxReturn*Environment.PPDensitySum,medianReturn*Environment.PPDensitySum,
 		//				minRate, maxRate, medianRate,M,N);
-		SAA saa = new SAA(2383906*Environment.PPDensitySum,2648785*Environment.PPDensitySum,
-				2913663*Environment.PPDensitySum,215325*Environment.PPDensitySum,
-				861300*Environment.PPDensitySum,1507275*Environment.PPDensitySum,0.525,0.7,0.875,M,N);		fvals = new ArrayList<Double>();
-		long start = 0, end = 0;
-		for(int i = 0; i<M; i++){
-			System.out.println("start the sample set " + i);
-			Triple[] samples  = saa.getSamples(i);
-
+		SAA saa = stepOneSAA;
+		if(saa == null){
+			// sample set i only depends on the stream and i, so with the stream kept
+			// replication i of the next round is rebuilt on the same samples
+			RandomStream stream = stepOneStream;
+			if(stream == null){
+				stream = random.split();
+				if(pools != null) stepOneStream = stream;
+			}
+			saa = new SAA(2383906*context.PPDensitySum,2648785*context.PPDensitySum,
+					2913663*context.PPDensitySum,215325*context.PPDensitySum,
+					861300*context.PPDensitySum,1507275*context.PPDensitySum,0.525,0.7,0.875,M,N,sampling,stream);
+		}
+		// the kept models are solved on the samples of the first run
+		if(models != null) stepOneSAA = saa;
+		fvals = new ArrayList<Double>();
+		upperBounds = new ArrayList<Double>();
+		solutions.clear();
+		solutionList.clear();
+		int nParallel = Math.max(1, Math.min(Environment.nParallelReplications, M));
+		int nStable = 0;   // replications in a row without a new selection
+		int nSolved = M, nLaunched = M;
+		nAborted.set(0);
+		if(nParallel == 1){
+			for(int i = 0; i<M; i++){
+				try {
+					nStable = collectReplication(i, solveReplication(saa, i, 0), saa.getSamples(i)) ? 0 : nStable + 1;
+					if(i + 1 < M && converged(nStable)){
+						nSolved = nLaunched = i + 1;
+						break;
+					}
+				} catch (IloException ex) {
+					System.err.println("\n!!!Unable to solve the BSH model:\n"
+							+ ex.getMessage() + "\n!!!");
+					System.exit(2);
+				}
+				Monitor.runGC();
+			}
+		}
+		else{
+			// every replication has its own models and the replications are the
+			// parallelism: a master with more than one thread would run the Benders
+			// callback, which is not thread safe, on several threads at once
+			final SAA replications = saa;
+			running = new BSH[M];
+			stopped = false;
+			final int nThreads = 1;
+			ExecutorService pool = Executors.newFixedThreadPool(nParallel);
+			ArrayList<Future<PrimalSolution>> futures = new ArrayList<Future<PrimalSolution>>();
+			for(int i = 0; i<M; i++){
+				final int index = i;
+				futures.add(pool.submit(new Callable<PrimalSolution>() {
+					@Override
+					public PrimalSolution call() throws IloException {
+						return solveReplication(replications, index, nThreads);
+					}
+				}));
+			}
+			// collect in the order of the replications, whatever order they finish in
 			try {
-				start = System.currentTimeMillis();
-				BSH model = new BSH(Environment.nDC, Environment.nRC,Environment.nCustomers, 
-						Environment.manCapacity,Environment.remanCapacity,
-						samples,
-						Environment.fixedCostDC,Environment.fixedCostRC,Environment.PPDensity,
-						Environment.flowCost_plant_DC, Environment.flowCost_DC_customers,
-						Environment.flowCost_customers_RC,Environment.flowCost_RC_plant);
-				PrimalSolution s = model.solve();
-				end = System.currentTimeMillis();
-				model.clear();
-
-				solutions.add(s);
-				solutionList.add(s);
-				fvals.add(s.profit);
-				times[i] = end - start;
-				System.out.println("end the sample set " + i);
-				s.print(System.out);
-			} catch (IloException ex) {
+				for(int i = 0; i<M; i++){
+					nStable = collectReplication(i, futures.get(i).get(), saa.getSamples(i)) ? 0 : nStable + 1;
+					if(i + 1 < M && converged(nStable)){
+						// the replications already running are aborted, the ones done are not collected
+						nSolved = i + 1;
+						for(int j = i + 1; j < M; j++){
+							if(futures.get(j).cancel(false)) nLaunched--;
+						}
+						abortReplications();
+						break;
+					}
+				}
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				System.err.println("\n!!!Interrupted while solving the BSH models\n!!!");
+				System.exit(2);
+			} catch (ExecutionException ex) {
 				System.err.println("\n!!!Unable to solve the BSH model:\n"
-						+ ex.getMessage() + "\n!!!");
+						+ ex.getCause().getMessage() + "\n!!!");
 				System.exit(2);
+			} finally {
+				pool.shutdownNow();
+				// replications left running after convergence must not share the cores or kept models with the next step
+				try {
+					pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				running = null;
 			}
-			Monitor.runGC();
+		}
+		nSkipped = M - nSolved;
+		if(nSkipped > 0){
+			int aborted = nAborted.get();
+			System.out.println("step one converged after " + nSolved + " of " + M + " replications, "
+					+ nSkipped + " skipped (" + (M - nLaunched) + " not started, " + aborted + " aborted, "
+					+ (nLaunched - nSolved - aborted) + " solved but discarded)");
 		}
 		System.out.println("end step one");
 
@@ -122,8 +382,108 @@ public class BSHTask {
 		//outputStepOne();
 	}
 
-	private void stepTwo() throws IloException {
-		SAA saa = null;
+	/*
+	 * Builds and solves the BSH model of one replication.
+	 * @param nThreads threads of the master and of every subproblem, 0 for the CPLEX default
+	 */
+	private PrimalSolution solveReplication(SAA saa, int i, int nThreads) throws IloException {
+		System.out.println("start the sample set " + i);
+		Triple[] samples  = saa.getSamples(i);
+
+		long start = System.currentTimeMillis();
+		BSH model = (models == null) ? null : models[i];
+		if(model == null){
+			// the replications may run in parallel, each one logs to its own file;
+			// the pool of the last round on the same samples seeds the master
+			DualPool seed = (pools == null) ? null : pools[i];
+			model = new BSH(context, samples, seed, "out/log_" + i + ".txt");
+			if(nThreads > 0) model.setThreads(nThreads);
+			if(models != null) models[i] = model;
+		}
+		else{
+			// a model kept from the last run, with its samples
+			model.setDisposalCost(context.disposalCost);
+		}
+		PrimalSolution s = null;
+		if(register(i, model)){
+			s = model.solve();
+			if(s.status == IloCplex.CplexStatus.AbortUser) nAborted.incrementAndGet();
+		}
+		else{
+			// step one converged before the replication started
+			nAborted.incrementAndGet();
+		}
+		long end = System.currentTimeMillis();
+		if(models == null) model.clear();
+		if(pools != null) pools[i] = model.getDualPool();
+		times[i] = end - start;
+		return s;
+	}
+
+	/*
+	 * Makes the model of replication i known to abortReplications.
+	 * @return false if step one has converged and the model must not be solved
+	 */
+	private boolean register(int i, BSH model) {
+		if(running == null) return true;
+		synchronized (running) {
+			if(stopped) return false;
+			running[i] = model;
+			return true;
+		}
+	}
+
+	/*
+	 * Aborts the solves of the parallel step one, the running ones and the
+	 * ones about to start.
+	 */
+	private void abortReplications() {
+		synchronized (running) {
+			stopped = true;
+			for(BSH model: running){
+				if(model != null) model.abort();
+			}
+		}
+	}
+
+	/*
+	 * @return true if the replication found a new selection
+	 */
+	private boolean collectReplication(int i, PrimalSolution s, Triple[] samples) {
+		boolean found = !solutions.containsKey(s.getConfiguration());
+		if(!found){
+			System.out.println("the sample set " + i + " repeats the selection " + s.getConfiguration());
+		}
+		else{
+			solutions.put(s.getConfiguration(), s);
+		}
+		solutionList.add(s);
+		fvals.add(s.profit);
+		// the constant step two subtracts as well
+		double meanRet = 0;
+		for(Triple triple: samples){
+			meanRet += triple.ret;
+		}
+		meanRet /= samples.length;
+		upperBounds.add(s.profit - (Environment.holdingCost + context.disposalCost)*meanRet);
+		System.out.println("end the sample set " + i);
+		s.print(System.out);
+		return found;
+	}
+
+	/*
+	 * Step one may stop once the last Environment.stepOneStable replications
+	 * found no new selection and the standard deviation of the optima is at
+	 * most Environment.stepOneTolerance of their mean.
+	 */
+	private boolean converged(int nStable) {
+		if(Environment.stepOneStable <= 0 || nStable < Environment.stepOneStable || fvals.size() < 2) return false;
+		double mean = MatrixHelper.getMean(fvals);
+		double stdDev = Math.sqrt(MatrixHelper.getVariance(fvals) * fvals.size());
+		return stdDev <= Environment.stepOneTolerance * Math.abs(mean);
+	}
+
+	private void stepTwo(ArrayList<PrimalSolution> candidates) throws IloException {
 		double maxfval = Double.NEGATIVE_INFINITY;
 		double maxVar = Double.NEGATIVE_INFINITY;
 		double[] finalUseDC = null;
@@ -132,50 +492,44 @@ public class BSHTask {
 		 
 
 		System.out.println("start step two");
-		for(PrimalSolution s: solutions){
-//			saa = new SAA(1589271*Environment.PPDensitySum,3708299*Environment.PPDensitySum,
-//					2648785*Environment.PPDensitySum,28710*Environment.PPDensitySum,
-//					200970*Environment.PPDensitySum,114840*Environment.PPDensitySum,0.525,0.875,0.7,1,Nprim);
-			//saa = new SAA(minMarket*Environment.PPDensitySum,maxMarket*Environment.PPDensitySum,
-			//		medianMarket*Environment.PPDensitySum,minReturn*Environment.PPDensitySum,
-			//		maxReturn*Environment.PPDensitySum,medianReturn*Environment.PPDensitySum,
-			//		minRate, maxRate, medianRate,1,Nprim);
-			saa = new SAA(2383906*Environment.PPDensitySum,2648785*Environment.PPDensitySum,
-					2913663*Environment.PPDensitySum,215325*Environment.PPDensitySum,
-					861300*Environment.PPDensitySum,1507275*Environment.PPDensitySum,0.525,0.7,0.875,1,Nprim);			
-			
-			double[] meanAndVar = LargeSampleComputation(s.udc,s.urc, saa);
-			
-			//taking a constant value into fval
-			double meanRet = 0;
-			double meanManPrice = 0;
-			for(Triple triple: saa.getSamples(0)){
-				meanRet += triple.ret;
-				
-				double I = (Environment.reservationPriceUB - Environment.reservationPriceLB)/triple.marketSize;   //I=(resPriceUB - resPriceLB) / marketSize;
-				meanManPrice +=  Environment.reservationPriceUB - I * s.manQuantity 
-					- Environment.remanDepreciation * I * s.remanQuantity;
-			}
-			
-			meanRet /= Nprim;
-			meanAndVar[0] -= (Environment.holdingCost + Environment.disposalCost)*meanRet;
-			
-			meanManPrice /= Nprim;
-
-			if (meanAndVar[0] > maxfval){
-				maxfval = meanAndVar[0];
-				maxVar = meanAndVar[1];
+		// all candidates are evaluated on the same samples, drawn chunk by chunk
+		ScenarioStream scenarios = stepTwoScenarios();
+		RunningStat ret = new RunningStat();
+		RunningStat inverseMarketSize = new RunningStat();
+		RunningStat[] stats = raceCandidates(candidates, scenarios, ret, inverseMarketSize);
+
+		//taking a constant value into fval
+		double meanRet = ret.getMean();
+
+		for(int c = 0; c < candidates.size(); c++){
+			// candidates dropped from the race are worse than the best one
+			if(stats[c].getCount() < Nprim) continue;
+			PrimalSolution s = candidates.get(c);
+			double fval = stats[c].getMean() - (Environment.holdingCost + context.disposalCost)*meanRet;
+			if (fval > maxfval){
+				maxfval = fval;
+				maxVar = stats[c].getVariance();
 				finalUseDC = s.udc;
 				finalUseRC = s.urc;
-				finalManPrice = meanManPrice;
+				finalSolution = s;
+
+				// the mean of UB - I * manQuantity - remanDepreciation * I * remanQuantity,
+				// with I=(resPriceUB - resPriceLB) / marketSize
+				finalManPrice = Environment.reservationPriceUB 
+					- (Environment.reservationPriceUB - Environment.reservationPriceLB) * inverseMarketSize.getMean()
+					* (s.manQuantity + Environment.remanDepreciation * s.remanQuantity);
 			}
-			Monitor.runGC();
 		}
 		System.out.println("end step two");
 		System.out.println("maxfval: "+maxfval);
 		System.out.println("maxVar: "+maxVar);
 
 		System.out.println("finalVar: "+ (fval_var + maxVar));
+		gap = null;
+		if(upperBounds != null && (estimateGap || Environment.estimateGap)){
+			gap = estimateGap(finalSolution);
+			System.out.println("optimality gap: " + gap);
+		}
 
 		System.out.println("finalUseDC: ");
 		StringBuilder finalUseDCSb = new StringBuilder();
@@ -198,7 +552,7 @@ public class BSHTask {
 			finalUseRCSb.append(" ");
 		}
 		System.out.println();
-		out.println(Environment.disposalCost + 
+		out.println(context.disposalCost + 
 				"," + maxfval + 
 				"," + maxVar + 
 				"," + finalUseDCSb +
@@ -206,15 +560,161 @@ public class BSHTask {
 				"," + finalManPrice);
 	}
 
-	private double[] LargeSampleComputation(double[] udc,
-			double[] urc, SAA saa) throws IloException {
-		BSHNPrim model = new BSHNPrim(Environment.nDC, Environment.nRC,Environment.nCustomers, 
-				Environment.manCapacity,Environment.remanCapacity,
-				saa.getSamples(0),
-				Environment.fixedCostDC,Environment.fixedCostRC,Environment.PPDensity,
-				Environment.flowCost_plant_DC, Environment.flowCost_DC_customers,
-				Environment.flowCost_customers_RC,Environment.flowCost_RC_plant);
-		return model.getExpectfvalandVarWithNprimSamples(udc,urc);
+	/*
+	 * Evaluates the candidates on the scenarios chunk by chunk, on
+	 * Environment.nStepTwoThreads threads; every chunk is drawn when it is
+	 * reached and split into one slice per thread for every candidate, so
+	 * the memory does not grow with the number of scenarios. With
+	 * Environment.raceChunk > 0, after every chunk, a candidate whose
+	 * confidence interval (Environment.raceZ standard errors) lies below
+	 * the one of another candidate is dropped; the others go on to the end.
+	 * Every thread keeps one BSHNPrim model for all its candidates and chunks.
+	 * @param ret the statistics of the returns of the scenarios, filled in
+	 * @param inverseMarketSize the statistics of 1/marketSize of the scenarios, filled in
+	 * @return the statistics of every candidate, over fewer than all samples if it was dropped
+	 */
+	private RunningStat[] raceCandidates(ArrayList<PrimalSolution> candidates, ScenarioStream scenarios,
+			RunningStat ret, RunningStat inverseMarketSize) throws IloException {
+		int nCandidates = candidates.size();
+		RunningStat[] stats = new RunningStat[nCandidates];
+		boolean[] racing = new boolean[nCandidates];
+		for(int c = 0; c < nCandidates; c++){
+			stats[c] = new RunningStat();
+			racing[c] = true;
+		}
+		int nThreads = Math.max(1, Environment.nStepTwoThreads);
+		ExecutorService pool = (nThreads > 1) ? Executors.newFixedThreadPool(nThreads) : null;
+		final ArrayList<BSHNPrim> models = new ArrayList<BSHNPrim>();
+		final ThreadLocal<BSHNPrim> threadModel = new ThreadLocal<BSHNPrim>();
+		long nEvaluated = 0;
+		try {
+			for(int k = 0; k < scenarios.getNChunks(); k++){
+				final Triple[] samples = scenarios.getChunk(k);
+				for(Triple triple: samples){
+					ret.add(triple.ret);
+					inverseMarketSize.add(1/triple.marketSize);
+				}
+				int nSlices = (pool == null) ? 1 : Math.min(nThreads, samples.length);
+				ArrayList<Future<RunningStat>> futures = new ArrayList<Future<RunningStat>>();
+				for(int c = 0; c < nCandidates; c++){
+					if(!racing[c]) continue;
+					final PrimalSolution s = candidates.get(c);
+					if(pool == null){
+						stats[c].merge(LargeSampleComputation(s.udc, s.urc, getModel(threadModel, models), samples, 0, samples.length));
+						continue;
+					}
+					for(int slice = 0; slice < nSlices; slice++){
+						final int from = slice * samples.length / nSlices;
+						final int to = (slice + 1) * samples.length / nSlices;
+						futures.add(pool.submit(new Callable<RunningStat>() {
+							@Override
+							public RunningStat call() throws IloException {
+								return LargeSampleComputation(s.udc, s.urc, getModel(threadModel, models), samples, from, to);
+							}
+						}));
+					}
+				}
+				// merge in candidate and slice order, the result does not depend on the threads
+				int f = 0;
+				for(int c = 0; c < nCandidates && pool != null; c++){
+					if(!racing[c]) continue;
+					for(int slice = 0; slice < nSlices; slice++){
+						stats[c].merge(getResult(futures.get(f++)));
+					}
+				}
+				nEvaluated += samples.length;
+				if(Environment.raceChunk > 0 && nEvaluated < scenarios.size()) dropDominated(stats, racing, nEvaluated);
+			}
+		} finally {
+			if(pool != null){
+				pool.shutdownNow();
+				// a model may only be released once no thread is solving it
+				try {
+					pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			synchronized (models) {
+				for(BSHNPrim model: models){
+					model.end();
+				}
+			}
+		}
+		return stats;
+	}
+
+	/*
+	 * @return Nprim step two samples from a new stream
+	 */
+	private ScenarioStream stepTwoScenarios() {
+		int chunk = (Environment.raceChunk > 0) ? Environment.raceChunk : Environment.streamChunk;
+		return new ScenarioStream(2383906*context.PPDensitySum,2648785*context.PPDensitySum,
+				2913663*context.PPDensitySum,215325*context.PPDensitySum,
+				861300*context.PPDensitySum,1507275*context.PPDensitySum,0.525,0.7,0.875,Nprim,chunk,sampling,random.split());
+	}
+
+	/*
+	 * The step two mean of the chosen candidate is the largest of several
+	 * means on the same samples, and biased upwards. The lower bound of the
+	 * gap is therefore the mean of the chosen candidate on Nprim new samples,
+	 * independent of the ones it was chosen on.
+	 */
+	private OptimalityGap estimateGap(PrimalSolution chosen) throws IloException {
+		ArrayList<PrimalSolution> candidates = new ArrayList<PrimalSolution>();
+		candidates.add(chosen);
+		RunningStat ret = new RunningStat();
+		RunningStat inverseMarketSize = new RunningStat();
+		RunningStat stat = raceCandidates(candidates, stepTwoScenarios(), ret, inverseMarketSize)[0];
+		double lowerBound = stat.getMean() - (Environment.holdingCost + context.disposalCost)*ret.getMean();
+		return new OptimalityGap(MatrixHelper.getMean(upperBounds), MatrixHelper.getVariance(upperBounds),
+				lowerBound, stat.getVariance(), Environment.gapZ);
+	}
+
+	private void dropDominated(RunningStat[] stats, boolean[] racing, long nSamples) {
+		if(Environment.raceZ <= 0 || nSamples < 2) return;
+		double bestLower = Double.NEGATIVE_INFINITY;
+		for(int c = 0; c < stats.length; c++){
+			if(racing[c]) bestLower = Math.max(bestLower, stats[c].getMean() - Environment.raceZ * stats[c].getStdDev());
+		}
+		for(int c = 0; c < stats.length; c++){
+			if(racing[c] && stats[c].getMean() + Environment.raceZ * stats[c].getStdDev() < bestLower){
+				racing[c] = false;
+				System.out.println("drop candidate " + c + " after " + nSamples + " samples, mean " + stats[c].getMean());
+			}
+		}
+	}
+
+	private static RunningStat getResult(Future<RunningStat> future) throws IloException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IloException("interrupted while evaluating the candidates");
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof IloException) throw (IloException) e.getCause();
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	/*
+	 * @return the model of the current thread, created on first use and recorded in models
+	 */
+	private BSHNPrim getModel(ThreadLocal<BSHNPrim> threadModel, ArrayList<BSHNPrim> models) throws IloException {
+		BSHNPrim model = threadModel.get();
+		if(model == null){
+			model = new BSHNPrim(context, null);
+			threadModel.set(model);
+			synchronized (models) {
+				models.add(model);
+			}
+		}
+		return model;
+	}
+
+	private RunningStat LargeSampleComputation(double[] udc,
+			double[] urc, BSHNPrim model, Triple[] samples, int from, int to) throws IloException {
+		return model.getStatistics(udc, urc, samples, from, to);
 	}
 
 
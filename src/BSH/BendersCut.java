@@ -0,0 +1,189 @@
+/*
+ * This class holds a Benders optimality cut of the CLSC problem as plain
+ * coefficients on the DC and RC selection variables.
+ */
+package BSH;
+
+import ilog.concert.IloException;
+import ilog.concert.IloLinearNumExpr;
+import ilog.concert.IloNumVar;
+import ilog.cplex.IloCplex;
+
+import java.util.Arrays;
+
+import utils.Environment;
+
+/**
+ * The right-hand side of the cut is
+ * constant + \sum_i coefDC[i] * use_DC[i] + \sum_j coefRC[j] * use_RC[j].
+ * An optimality cut bounds a profit estimate from above by it, a feasibility
+ * cut requires it to be <= 0.
+ *
+ * The scenarios are added one by one from their dual solutions, so building
+ * the cut does not create any Concert object until it is added to the master.
+ *
+ * @author Feng Zhao (zhaofeng@nus.edu.sg)
+ */
+public class BendersCut {
+	public double constant;
+	public double[] coefDC;
+	public double[] coefRC;
+
+	public BendersCut(int nDC, int nRC){
+		coefDC = new double[nDC];
+		coefRC = new double[nRC];
+	}
+
+	/**
+	 * Builds the combinatorial cut excluding exactly one selection: its
+	 * right-hand side is 1 at the selection and <= 0 at every other one.
+	 * @param udc DC used
+	 * @param urc RC used
+	 * @return the cut
+	 */
+	public static BendersCut noGood(double[] udc, double[] urc){
+		BendersCut cut = new BendersCut(udc.length, urc.length);
+		cut.constant = 1;
+		for (int i = 0; i < udc.length; i++) {
+			if(udc[i] > 0.5){
+				cut.constant -= 1;
+				cut.coefDC[i] = 1;
+			}
+			else cut.coefDC[i] = -1;
+		}
+		for (int i = 0; i < urc.length; i++) {
+			if(urc[i] > 0.5){
+				cut.constant -= 1;
+				cut.coefRC[i] = 1;
+			}
+			else cut.coefRC[i] = -1;
+		}
+		return cut;
+	}
+
+	/**
+	 * Adds the scalar product of the right-hand sides of the rows of a
+	 * subproblem with their duals, plus the quadratic term of its objective.
+	 * @param sub the subproblem
+	 * @param dual the dual solution of the subproblem
+	 */
+	public void addScenario(BSHSub sub, DualSolution dual){
+		double marketSize = sub.sample.marketSize;
+		double ret = sub.sample.ret;
+		double recoveryRate = sub.sample.recoveryRate;
+
+		// the rows with a constant right-hand side
+		constant += dual.gamma[0] * sub.capacity_DC[0] + dual.gamma[1] * sub.capacity_DC[1]
+				+ dual.gamma[2] * marketSize + dual.gamma[3] * recoveryRate * ret;
+		for (int j = 0; j < sub.nMarket; j++) {
+			constant += dual.chi[j] * ret * sub.PPDensity[j];
+		}
+		double I = (Environment.reservationPriceUB - Environment.reservationPriceLB)/marketSize;
+		double d = Environment.remanDepreciation;
+		constant += I * dual.q_new * dual.q_new + 2 * d * I * dual.q_new * dual.q_reman
+				+ d * I * dual.q_reman * dual.q_reman;
+
+		// the supply rows, which are only open if the facility is used
+		for (int i = 0; i < sub.nDistributionCenter; i++) {
+			double sumNew = 0, sumReman = 0;
+			for (int j = 0; j < sub.nMarket; j++) {
+				sumNew += dual.epsilon_DC_new[i][j];
+				sumReman += dual.epsilon_DC_reman[i][j];
+			}
+			coefDC[i] += sumNew * sub.capacity_DC[0] + sumReman * sub.capacity_DC[1];
+		}
+		for (int j = 0; j < sub.nMarket; j++) {
+			for (int k = 0; k < sub.nReturnCenter; k++) {
+				coefRC[k] += dual.epsilon_RC[j][k] * sub.capacity_RC[k];
+			}
+		}
+	}
+
+	/**
+	 * Adds another cut, e.g. the cut of another scenario.
+	 */
+	public void add(BendersCut other){
+		constant += other.constant;
+		for (int i = 0; i < coefDC.length; i++) {
+			coefDC[i] += other.coefDC[i];
+		}
+		for (int i = 0; i < coefRC.length; i++) {
+			coefRC[i] += other.coefRC[i];
+		}
+	}
+
+	/**
+	 * Multiplies the cut by a factor, e.g. 1/N to average N scenarios.
+	 */
+	public void scale(double factor){
+		constant *= factor;
+		for (int i = 0; i < coefDC.length; i++) {
+			coefDC[i] *= factor;
+		}
+		for (int i = 0; i < coefRC.length; i++) {
+			coefRC[i] *= factor;
+		}
+	}
+
+	/**
+	 * @return the value of the right-hand side at a DC/RC selection
+	 */
+	public double evaluate(double[] udc, double[] urc){
+		double value = constant;
+		for (int i = 0; i < coefDC.length; i++) {
+			value += coefDC[i] * udc[i];
+		}
+		for (int i = 0; i < coefRC.length; i++) {
+			value += coefRC[i] * urc[i];
+		}
+		return value;
+	}
+
+	/**
+	 * Builds the right-hand side as a single linear expression of the model.
+	 * @param model the master model
+	 * @param use_DC the DC selection variables
+	 * @param use_RC the RC selection variables
+	 * @return the expression
+	 * @throws IloException if something makes CPLEX unhappy
+	 */
+	public IloLinearNumExpr toExpr(IloCplex model, IloNumVar[] use_DC, IloNumVar[] use_RC) throws IloException{
+		double[] coefs = new double[coefDC.length + coefRC.length];
+		IloNumVar[] vars = new IloNumVar[coefs.length];
+		System.arraycopy(coefDC, 0, coefs, 0, coefDC.length);
+		System.arraycopy(coefRC, 0, coefs, coefDC.length, coefRC.length);
+		System.arraycopy(use_DC, 0, vars, 0, coefDC.length);
+		System.arraycopy(use_RC, 0, vars, coefDC.length, coefRC.length);
+		IloLinearNumExpr expr = model.linearNumExpr(constant);
+		expr.addTerms(coefs, vars);
+		return expr;
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		long temp = Double.doubleToLongBits(constant);
+		result = prime * result + (int) (temp ^ (temp >>> 32));
+		result = prime * result + Arrays.hashCode(coefDC);
+		result = prime * result + Arrays.hashCode(coefRC);
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null || getClass() != obj.getClass())
+			return false;
+		BendersCut other = (BendersCut) obj;
+		return Double.doubleToLongBits(constant) == Double.doubleToLongBits(other.constant)
+				&& Arrays.equals(coefDC, other.coefDC) && Arrays.equals(coefRC, other.coefRC);
+	}
+
+	@Override
+	public String toString() {
+		return "[constant=" + constant + "\tcoefDC=" + Arrays.toString(coefDC)
+				+ "\tcoefRC=" + Arrays.toString(coefRC) + "]";
+	}
+}
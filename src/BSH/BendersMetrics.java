@@ -0,0 +1,101 @@
+/*
+ * This class records where the time of a Benders solve goes and writes it
+ * as a time series, one line per callback.
+ */
+package BSH;
+
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Every call of the Benders callback writes one CSV line with the outcome of
+ * the callback (a cut from the solved subproblems, from the cache or from the
+ * dual pool, a feasibility cut, an accepted incumbent), the node count, the
+ * number of cuts, the best bound and the incumbent, and the cumulative time
+ * spent so far in every phase:
+ * - update: setting the subproblem bounds and warm start bases
+ * - solve: solving the subproblems (CPLEX or BSHSubEvaluator)
+ * - duals: reading the subproblem duals
+ * - cuts: building the cuts and adding them to the master
+ * - callback: everything done in the callback, including the phases above
+ * - master: the time between two callbacks, spent by CPLEX on the master
+ * All times are in milliseconds since the start of the solve.
+ *
+ * @author Feng Zhao (zhaofeng@nus.edu.sg)
+ */
+public class BendersMetrics {
+	public static final String HEADER = "callback,time_ms,event,nodes,cuts,bound,incumbent,"
+			+ "update_ms,solve_ms,duals_ms,cuts_ms,callback_ms,master_ms";
+
+	private static final AtomicInteger nRuns = new AtomicInteger();
+
+	private PrintStream out;
+	private long start;   // start of the solve
+	private long callbackStart;   // start of the current callback
+	private long lastCallbackEnd;
+	private long masterNanos = 0, callbackNanos = 0, cutNanos = 0;
+	private int nCallbacks = 0;
+
+	/**
+	 * Constructor.
+	 * @param dir the directory of the CSV file, which is named after the time and a run counter
+	 * @throws FileNotFoundException if the file cannot be created
+	 */
+	public BendersMetrics(String dir) throws FileNotFoundException{
+		String fileName = dir + "/benders_" + System.currentTimeMillis() + "_" + nRuns.incrementAndGet() + ".csv";
+		out = new PrintStream(new FileOutputStream(fileName));
+		out.println(HEADER);
+	}
+
+	public synchronized void startSolve(){
+		start = lastCallbackEnd = System.nanoTime();
+	}
+
+	public synchronized void callbackStarted(){
+		callbackStart = System.nanoTime();
+		masterNanos += callbackStart - lastCallbackEnd;
+	}
+
+	public synchronized void addCutTime(long nanos){
+		cutNanos += nanos;
+	}
+
+	/**
+	 * Writes the line of a callback.
+	 * @param updateNanos the time in the update phase over all subproblems since the start
+	 * @param solveNanos the time in the solve phase over all subproblems since the start
+	 * @param dualNanos the time in the dual phase over all subproblems since the start
+	 */
+	public synchronized void callbackEnded(String event, long nodes, int cuts, double bound, double incumbent,
+			long updateNanos, long solveNanos, long dualNanos){
+		lastCallbackEnd = System.nanoTime();
+		callbackNanos += lastCallbackEnd - callbackStart;
+		nCallbacks++;
+		out.println(nCallbacks + "," + ms(lastCallbackEnd - start) + "," + event + "," + nodes + "," + cuts
+				+ "," + bound + "," + incumbent + "," + ms(updateNanos) + "," + ms(solveNanos)
+				+ "," + ms(dualNanos) + "," + ms(cutNanos) + "," + ms(callbackNanos) + "," + ms(masterNanos));
+	}
+
+	public synchronized int getNCallbacks(){
+		return nCallbacks;
+	}
+
+	/**
+	 * @return a one line summary of the phases
+	 */
+	public synchronized String summary(long updateNanos, long solveNanos, long dualNanos){
+		return "callbacks " + nCallbacks + ", time in master " + ms(masterNanos) + "ms, callback "
+				+ ms(callbackNanos) + "ms (update " + ms(updateNanos) + "ms, solve " + ms(solveNanos)
+				+ "ms, duals " + ms(dualNanos) + "ms, cuts " + ms(cutNanos) + "ms)";
+	}
+
+	public synchronized void close(){
+		out.close();
+	}
+
+	private static long ms(long nanos){
+		return nanos / 1000000;
+	}
+}
@@ -0,0 +1,124 @@
+/*
+ * This class solves a BSH task for a list of disposal costs, solving the
+ * full SAA only where the chosen selection changes.
+ */
+package BSH;
+
+import ilog.concert.IloException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Over a range of disposal costs the selection chosen by the SAA is
+ * piecewise constant. The sweep runs the full task (both steps) at the
+ * lowest and the highest price. If both choose the same selection, every
+ * price in between is assumed to choose it too and only gets step two for
+ * that selection; otherwise the price in the middle is run in full and both
+ * halves are searched the same way. So the step one MIP solves are only
+ * spent around the prices where the selection changes.
+ *
+ * The results are written in the order of the price list, one line per
+ * price as BSHTask writes them.
+ *
+ * @author Feng Zhao (zhaofeng@nus.edu.sg)
+ */
+public class DisposalCostSweep {
+	private BSHTask task;
+	private double[] prices;
+	private Integer[] order;   // indices of the prices in increasing price
+	private PrimalSolution[] solutions;   // selection chosen at every price run in full
+	private String[] lines;   // result line of every price
+	private int nRuns = 0, nEvaluations = 0;
+
+	/**
+	 * Constructor.
+	 * @param task the task run at every price, it must have a step two (Nprim > 0)
+	 * @param prices the disposal costs
+	 */
+	public DisposalCostSweep(BSHTask task, List<Double> prices){
+		this.task = task;
+		this.prices = new double[prices.size()];
+		order = new Integer[prices.size()];
+		for (int i = 0; i < prices.size(); i++) {
+			this.prices[i] = prices.get(i);
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer o1, Integer o2) {
+				return Double.compare(DisposalCostSweep.this.prices[o1], DisposalCostSweep.this.prices[o2]);
+			}
+		});
+		solutions = new PrimalSolution[prices.size()];
+		lines = new String[prices.size()];
+	}
+
+	/**
+	 * Runs the sweep and writes the results.
+	 * @param out the stream of the result lines
+	 * @throws IloException if something makes CPLEX unhappy
+	 */
+	public void run(PrintStream out) throws IloException{
+		if(prices.length == 0) return;
+		int last = prices.length - 1;
+		runTask(0);
+		if(last > 0) runTask(last);
+		search(0, last);
+		for(String line: lines){
+			out.print(line);
+		}
+		out.flush();
+		System.out.println("disposal cost sweep: " + nRuns + " full runs, " + nEvaluations
+				+ " step two evaluations for " + prices.length + " prices");
+	}
+
+	/*
+	 * Fills in the prices strictly between the sorted positions from and to,
+	 * both of which have been run in full.
+	 */
+	private void search(int from, int to) throws IloException{
+		if(to - from <= 1) return;
+		PrimalSolution low = solutions[order[from]];
+		PrimalSolution high = solutions[order[to]];
+		if(low != null && high != null && low.getConfiguration().equals(high.getConfiguration())){
+			for (int k = from + 1; k < to; k++) {
+				evaluate(k, low);
+			}
+			return;
+		}
+		int middle = (from + to) / 2;
+		runTask(middle);
+		search(from, middle);
+		search(middle, to);
+	}
+
+	private void runTask(int k) throws IloException{
+		int i = order[k];
+		ByteArrayOutputStream line = prepare(i);
+		task.run();
+		solutions[i] = task.getFinalSolution();
+		lines[i] = line.toString();
+		nRuns++;
+	}
+
+	private void evaluate(int k, PrimalSolution candidate) throws IloException{
+		int i = order[k];
+		ByteArrayOutputStream line = prepare(i);
+		task.evaluate(candidate);
+		lines[i] = line.toString();
+		nEvaluations++;
+	}
+
+	// sets the task to the price, its result line goes to the returned buffer
+	private ByteArrayOutputStream prepare(int i){
+		System.out.println("disposal cost " + prices[i]);
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		task.setDisposalCost(prices[i]);
+		task.setOut(new PrintStream(line, true));
+		return line;
+	}
+}
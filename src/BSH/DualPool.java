@@ -0,0 +1,144 @@
+/*
+ * This class keeps the dual solutions of the scenario subproblems found so
+ * far, to build optimality cuts without solving the subproblems.
+ */
+package BSH;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+
+/**
+ * The dual feasible region of a scenario subproblem does not depend on the
+ * DC/RC selection, which only enters the right-hand sides. Every dual
+ * solution found for a scenario, stored as the (unscaled) BendersCut of that
+ * scenario, therefore bounds the scenario objective at any selection. For a
+ * new selection the pool picks the lowest bound of every scenario; if even
+ * that cut is violated by the master estimate, the cut can be added without
+ * solving anything.
+ *
+ * Every scenario keeps at most capacity cuts. When it is full, the cut
+ * which was picked least often is dropped (the oldest one on ties).
+ *
+ * @author Feng Zhao (zhaofeng@nus.edu.sg)
+ */
+public class DualPool {
+	private int capacity;
+	private ArrayList<ArrayList<BendersCut>> cuts;   // cuts of every scenario
+	private ArrayList<ArrayList<Integer>> hits;   // number of times each cut was picked
+	private int nScenarios;
+
+	/**
+	 * Constructor.
+	 * @param nScenarios the number of scenarios
+	 * @param capacity the maximal number of cuts kept per scenario
+	 */
+	public DualPool(int nScenarios, int capacity){
+		this.nScenarios = nScenarios;
+		this.capacity = capacity;
+		cuts = new ArrayList<ArrayList<BendersCut>>(nScenarios);
+		hits = new ArrayList<ArrayList<Integer>>(nScenarios);
+		for (int s = 0; s < nScenarios; s++) {
+			cuts.add(new ArrayList<BendersCut>());
+			hits.add(new ArrayList<Integer>());
+		}
+	}
+
+	/**
+	 * Adds the cut of one scenario, unless the same cut is already stored.
+	 * @param scenario the scenario index
+	 * @param cut the unscaled cut built from the dual solution of the scenario
+	 */
+	public synchronized void add(int scenario, BendersCut cut){
+		ArrayList<BendersCut> scenarioCuts = cuts.get(scenario);
+		ArrayList<Integer> scenarioHits = hits.get(scenario);
+		if(scenarioCuts.contains(cut)) return;
+		if(scenarioCuts.size() >= capacity){
+			int victim = 0;
+			for (int k = 1; k < scenarioCuts.size(); k++) {
+				if(scenarioHits.get(k) < scenarioHits.get(victim)) victim = k;
+			}
+			scenarioCuts.remove(victim);
+			scenarioHits.remove(victim);
+		}
+		scenarioCuts.add(cut);
+		scenarioHits.add(0);
+	}
+
+	/**
+	 * Builds the tightest cut the pool provides for the scenarios [from, to)
+	 * at a selection, averaged over all scenarios.
+	 * @param udc DC used
+	 * @param urc RC used
+	 * @return the cut, null if a scenario has no cut yet
+	 */
+	public synchronized BendersCut bestCut(int from, int to, double[] udc, double[] urc){
+		BendersCut cut = new BendersCut(udc.length, urc.length);
+		for (int s = from; s < to; s++) {
+			ArrayList<BendersCut> scenarioCuts = cuts.get(s);
+			if(scenarioCuts.isEmpty()) return null;
+			int best = 0;
+			double bestValue = Double.POSITIVE_INFINITY;
+			for (int k = 0; k < scenarioCuts.size(); k++) {
+				double value = scenarioCuts.get(k).evaluate(udc, urc);
+				if(value < bestValue){
+					bestValue = value;
+					best = k;
+				}
+			}
+			hits.get(s).set(best, hits.get(s).get(best) + 1);
+			cut.add(scenarioCuts.get(best));
+		}
+		cut.scale(1.0/nScenarios);
+		return cut;
+	}
+
+	/**
+	 * Builds a cut for the scenarios [from, to) from the rank-th most picked
+	 * cut of every scenario, to seed a new master model.
+	 * @return the cut, null if a scenario has not that many cuts
+	 */
+	public synchronized BendersCut seedCut(int from, int to, int rank, int nDC, int nRC){
+		BendersCut cut = new BendersCut(nDC, nRC);
+		for (int s = from; s < to; s++) {
+			ArrayList<BendersCut> scenarioCuts = cuts.get(s);
+			if(scenarioCuts.size() <= rank) return null;
+			ArrayList<Integer> order = new ArrayList<Integer>();
+			for (int k = 0; k < scenarioCuts.size(); k++) {
+				order.add(k);
+			}
+			final ArrayList<Integer> scenarioHits = hits.get(s);
+			Collections.sort(order, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer o1, Integer o2) {
+					return scenarioHits.get(o2) - scenarioHits.get(o1);
+				}
+			});
+			cut.add(scenarioCuts.get(order.get(rank)));
+		}
+		cut.scale(1.0/nScenarios);
+		return cut;
+	}
+
+	public int getNScenarios(){
+		return nScenarios;
+	}
+
+	/**
+	 * @return the number of cuts stored over all scenarios
+	 */
+	public synchronized int size(){
+		int size = 0;
+		for (ArrayList<BendersCut> scenarioCuts: cuts) {
+			size += scenarioCuts.size();
+		}
+		return size;
+	}
+
+	public synchronized void clear(){
+		for (int s = 0; s < nScenarios; s++) {
+			cuts.get(s).clear();
+			hits.get(s).clear();
+		}
+	}
+}
@@ -0,0 +1,90 @@
+/*
+ * This class represents a selection of DCs and RCs.
+ */
+package BSH;
+
+import java.util.BitSet;
+
+/**
+ * An immutable DC/RC selection which can be used as a key in maps, with the
+ * Hamming distance as a measure of how different two selections are.
+ *
+ * @author Feng Zhao (zhaofeng@nus.edu.sg)
+ */
+public final class FacilityConfiguration {
+	private final int nDC;
+	private final int nRC;
+	private final BitSet used;   // bits [0, nDC) are the DCs, [nDC, nDC + nRC) the RCs
+	private final int hash;
+
+	/**
+	 * Constructor.
+	 * @param udc DC used, a DC is used if its value is larger than 0.5
+	 * @param urc RC used, a RC is used if its value is larger than 0.5
+	 */
+	public FacilityConfiguration(double[] udc, double[] urc){
+		nDC = udc.length;
+		nRC = urc.length;
+		used = new BitSet(nDC + nRC);
+		for (int i = 0; i < nDC; i++) {
+			if(udc[i] > 0.5) used.set(i);
+		}
+		for (int i = 0; i < nRC; i++) {
+			if(urc[i] > 0.5) used.set(nDC + i);
+		}
+		hash = 31 * (31 * nDC + nRC) + used.hashCode();
+	}
+
+	public boolean isDCUsed(int i){
+		return used.get(i);
+	}
+
+	public boolean isRCUsed(int i){
+		return used.get(nDC + i);
+	}
+
+	public int getNDC(){
+		return nDC;
+	}
+
+	public int getNRC(){
+		return nRC;
+	}
+
+	/**
+	 * @return the number of facilities which are used in only one of the two selections
+	 */
+	public int distance(FacilityConfiguration other){
+		BitSet diff = (BitSet) used.clone();
+		diff.xor(other.used);
+		return diff.cardinality();
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null || getClass() != obj.getClass())
+			return false;
+		FacilityConfiguration other = (FacilityConfiguration) obj;
+		return nDC == other.nDC && nRC == other.nRC && used.equals(other.used);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("DC: ");
+		for (int i = 0; i < nDC; i++) {
+			sb.append(isDCUsed(i) ? '1' : '0');
+		}
+		sb.append(" RC: ");
+		for (int i = 0; i < nRC; i++) {
+			sb.append(isRCUsed(i) ? '1' : '0');
+		}
+		return sb.toString();
+	}
+}
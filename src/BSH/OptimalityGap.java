@@ -0,0 +1,59 @@
+/*
+ * This class estimates the optimality gap of the selection chosen by the
+ * SAA method.
+ */
+package BSH;
+
+/**
+ * The profit of the true problem is bounded from above by the mean of the
+ * step one optima (their expectation is at least the optimum) and from
+ * below by the profit of the chosen selection, estimated on samples
+ * independent of the step two samples it was chosen on: the best of the
+ * step two means is biased upwards. The gap between
+ * the two estimates is the gap of the chosen selection plus the bias of
+ * the step one optima; with the variances of both means it gives the
+ * one-sided confidence bound
+ *
+ *     gap <= max(upperBound - lowerBound, 0) + z * sqrt(upperVar + lowerVar)
+ *
+ * at the level of the normal quantile z.
+ *
+ * @author Feng Zhao (zhaofeng@nus.edu.sg)
+ */
+public class OptimalityGap {
+	public final double upperBound, upperVar;   // mean of the step one optima and the variance of the mean
+	public final double lowerBound, lowerVar;   // profit of the chosen selection on independent samples and the variance of the mean
+	public final double gap;   // point estimate
+	public final double halfWidth;   // z standard errors of the gap estimate
+
+	public OptimalityGap(double upperBound, double upperVar, double lowerBound, double lowerVar, double z){
+		this.upperBound = upperBound;
+		this.upperVar = upperVar;
+		this.lowerBound = lowerBound;
+		this.lowerVar = lowerVar;
+		gap = upperBound - lowerBound;
+		halfWidth = z * Math.sqrt(upperVar + lowerVar);
+	}
+
+	/**
+	 * @return the upper end of the confidence interval of the gap, NaN
+	 *         with less than two step one replications
+	 */
+	public double getBound(){
+		return Math.max(gap, 0) + halfWidth;
+	}
+
+	/**
+	 * @return the bound relative to the lower bound of the profit
+	 */
+	public double getRelativeBound(){
+		return getBound() / Math.abs(lowerBound);
+	}
+
+	@Override
+	public String toString(){
+		return "upper bound " + upperBound + " (var " + upperVar + "), lower bound " + lowerBound
+				+ " (var " + lowerVar + "), gap " + gap + ", gap bound " + getBound()
+				+ " (" + 100 * getRelativeBound() + "%)";
+	}
+}
@@ -9,7 +9,6 @@ import ilog.cplex.IloCplex.CplexStatus;
 import java.io.PrintStream;
 import java.util.Arrays;
 
-import utils.Environment;
 
 /**
  * @author Wenyi Chen (wchen@zlc.edu.es)
@@ -31,15 +30,18 @@ public class PrimalSolution {
 	public int nNodes;
 	public int nCuts;
 
+	private FacilityConfiguration configuration = null;   // built from udc and urc on first use
+
 	public PrimalSolution (){
 
 	}
 	public PrimalSolution (double profit, double[] udc, double[] urc, double[][] flowPlant_DC,double[][][] flowDC_customers,
 			double[][] flowCustomers_RC, double[] flowRC_plant,double flowManQuantity, double flowRemanQuantity, CplexStatus cplexStatus){
-		plant_DC = new double[2][Environment.nDC];
-		DC_customers = new double[2][Environment.nDC][Environment.nCustomers];
-		customers_RC = new double[Environment.nCustomers][Environment.nRC];
-		RC_plant = new double[Environment.nRC];
+		int nCustomers = flowCustomers_RC.length;
+		plant_DC = new double[2][udc.length];
+		DC_customers = new double[2][udc.length][nCustomers];
+		customers_RC = new double[nCustomers][urc.length];
+		RC_plant = new double[urc.length];
 
 		this.profit = profit;
 		this.udc = udc;
@@ -48,11 +50,11 @@ public class PrimalSolution {
 			plant_DC[l] = Arrays.copyOf(flowPlant_DC[l], udc.length);
 		}
 		for(int l = 0; l < 2; l++) {
-			for(int i = 0; i < Environment.nDC; i++) {
-				DC_customers[l][i] = Arrays.copyOf(flowDC_customers[l][i], Environment.nCustomers);
+			for(int i = 0; i < udc.length; i++) {
+				DC_customers[l][i] = Arrays.copyOf(flowDC_customers[l][i], nCustomers);
 			}
 		}
-		for(int i = 0; i < Environment.nRC; i++) {
+		for(int i = 0; i < nCustomers; i++) {
 			customers_RC[i] = Arrays.copyOf(flowCustomers_RC[i], urc.length); 
 		}
 		RC_plant = Arrays.copyOf(flowRC_plant, urc.length);
@@ -121,19 +123,21 @@ public class PrimalSolution {
 		out.println("***");
 	}
 	
+	/**
+	 * @return the DC/RC selection of the solution
+	 */
+	public FacilityConfiguration getConfiguration(){
+		if(configuration == null) configuration = new FacilityConfiguration(udc, urc);
+		return configuration;
+	}
+
+	/*
+	 * Two solutions are equal if they use the same DCs and RCs.
+	 */
 	@Override
 	public boolean equals(Object other){
 		if(other instanceof PrimalSolution){
-			PrimalSolution s = (PrimalSolution) other;
-			if(s.udc.length!= udc.length || s.urc.length != urc.length) return false;
-			double eps = 0.00001;
-			for(int i=0; i < udc.length; i++){
-				if(Math.abs(udc[i]-s.udc[i])> eps) return false;
-			}
-			for(int i=0; i < urc.length; i++){
-				if(Math.abs(urc[i]-s.urc[i])> eps) return false;
-			}
-			return true;
+			return getConfiguration().equals(((PrimalSolution) other).getConfiguration());
 		}
 		else{
 			return false;
@@ -142,7 +146,7 @@ public class PrimalSolution {
 	
 	@Override
 	public int hashCode(){
-		return udc.hashCode() + urc.hashCode();
+		return getConfiguration().hashCode();
 	}
 	
 
@@ -8,6 +8,7 @@ import ilog.concert.IloLQNumExpr;
 import ilog.concert.IloNumVar;
 import ilog.cplex.IloCplex;
 import ilog.cplex.IloCplex.VariableSelect;
+import utils.ModelContext;
 
 /**
  * @author Wenyi Chen (wchen@zlc.edu.es)
@@ -41,6 +42,27 @@ public class SingleModel {
 			double[] fixedCostDC, double[] fixedCostRC, 
 			double[] PPDensity, double[] flowCost_plant_DC, double[][] flowCost_DC_customers, 
 			double[][] flowCost_customers_RC, double[] flowCost_RC_plant) throws IloException {
+		this(nDC, nRC, nCustomers, manCapacity, remanCapacity, ret, recoveryRate, marketSize,
+				fixedCostDC, fixedCostRC, PPDensity, flowCost_plant_DC, flowCost_DC_customers,
+				flowCost_customers_RC, flowCost_RC_plant, 50);
+	}
+
+	/**
+	 * Constructor for a scenario of an instance, with the disposal cost of the instance.
+	 * @throws IloException if CPLEX is unhappy
+	 */
+	public SingleModel(ModelContext context, double ret, double recoveryRate, double marketSize) throws IloException {
+		this(context.nDC, context.nRC, context.nCustomers, context.manCapacity, context.remanCapacity,
+				ret, recoveryRate, marketSize, context.fixedCostDC, context.fixedCostRC, context.PPDensity,
+				context.flowCost_plant_DC, context.flowCost_DC_customers, context.flowCost_customers_RC,
+				context.flowCost_RC_plant, context.disposalCost);
+	}
+
+	private SingleModel(int nDC, int nRC, int nCustomers, double manCapacity, double remanCapacity, 
+			double ret, double recoveryRate, double marketSize, 
+			double[] fixedCostDC, double[] fixedCostRC, 
+			double[] PPDensity, double[] flowCost_plant_DC, double[][] flowCost_DC_customers, 
+			double[][] flowCost_customers_RC, double[] flowCost_RC_plant, double disposalCost) throws IloException {
 		cplex = new IloCplex();
 		use_DC = new IloNumVar[nDC];
 		use_RC = new IloNumVar[nRC];
@@ -58,7 +80,6 @@ public class SingleModel {
 		double remanCost = 375; 
 		double holdingCost = 10;
 		//double sortingCost = 20;
-		double disposalCost = 50;
 		double I = (reservationPriceUB - reservationPriceLB)/marketSize;   //I=(resPriceUB - resPriceLB) / marketSize;
 		double manA = reservationPriceUB - manCost - holdingCost;
 		double remanA = remanDepreciation * reservationPriceUB - remanCost - holdingCost + disposalCost;
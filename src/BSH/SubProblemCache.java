@@ -0,0 +1,87 @@
+/*
+ * This class remembers the results of the scenario subproblems for the
+ * DC/RC selections already evaluated by the Benders callback.
+ */
+package BSH;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The master often proposes the same selection again during branch-and-bound.
+ * For every selection the cache keeps what the callback needs to decide
+ * between a cut and accepting the incumbent: the expected subproblem
+ * objective, the objective of every scenario cluster and the optimality cut
+ * of every cluster. The flows of the first scenario are only added once the
+ * selection has been accepted as incumbent.
+ *
+ * At most capacity selections are kept, the least recently used is dropped
+ * first.
+ *
+ * @author Feng Zhao (zhaofeng@nus.edu.sg)
+ */
+public class SubProblemCache {
+	/**
+	 * The subproblem results of one selection.
+	 */
+	public static class Entry {
+		public final double expectObjValue;   // averaged over all scenarios
+		public final double[] clusterObjValues;   // sum over the cluster divided by the number of scenarios
+		public final BendersCut[] cuts;   // optimality cut of every cluster
+		public PrimalSolution incumbent = null;   // flows of the first scenario, null until accepted
+
+		public Entry(double expectObjValue, double[] clusterObjValues, BendersCut[] cuts){
+			this.expectObjValue = expectObjValue;
+			this.clusterObjValues = clusterObjValues;
+			this.cuts = cuts;
+		}
+	}
+
+	private LinkedHashMap<FacilityConfiguration, Entry> entries;
+	private int nHits = 0, nMisses = 0;
+
+	/**
+	 * Constructor.
+	 * @param capacity the maximal number of selections kept
+	 */
+	public SubProblemCache(final int capacity){
+		entries = new LinkedHashMap<FacilityConfiguration, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<FacilityConfiguration, Entry> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * @return the results of the selection, null if it is not in the cache
+	 */
+	public synchronized Entry get(FacilityConfiguration configuration){
+		Entry entry = entries.get(configuration);
+		if(entry == null) nMisses++;
+		else nHits++;
+		return entry;
+	}
+
+	public synchronized void put(FacilityConfiguration configuration, Entry entry){
+		entries.put(configuration, entry);
+	}
+
+	public synchronized void clear(){
+		entries.clear();
+	}
+
+	public synchronized int size(){
+		return entries.size();
+	}
+
+	public synchronized int getNHits(){
+		return nHits;
+	}
+
+	public synchronized int getNMisses(){
+		return nMisses;
+	}
+}
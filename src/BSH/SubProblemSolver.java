@@ -0,0 +1,170 @@
+/*
+ * This class solves the scenario subproblems of the CLSC problem for a
+ * given selection of DCs and RCs, optionally on a pool of worker threads.
+ */
+package BSH;
+
+import ilog.concert.IloException;
+import ilog.cplex.IloCplex;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import utils.Environment;
+
+/**
+ * The subproblems are split into contiguous blocks, one block per worker, so
+ * every BSHSub (and its IloCplex) is only ever used by a single worker.
+ *
+ * The results are stored by scenario index, so the callback can aggregate
+ * them in the same order as the sequential loop and gets exactly the same cut.
+ *
+ * With an evaluator the subproblems are solved in plain Java and CPLEX is only
+ * used when the evaluator cannot (or, in check mode, to compare the results).
+ *
+ * @author Feng Zhao (zhaofeng@nus.edu.sg)
+ */
+public class SubProblemSolver {
+	private BSHSub[] subproblems;
+	private BSHSubEvaluator evaluator;   // solves the subproblems without CPLEX, null to always use CPLEX
+	private int nWorkers;
+	private ExecutorService pool = null;
+	private volatile boolean failed;   // set once a subproblem is not optimal
+	private AtomicLong nativeNanos = new AtomicLong();   // time spent in the evaluator
+
+	public IloCplex.Status[] status;   // status of each subproblem, null if not solved
+	public double[] objValues;         // objective value of each subproblem
+	public DualSolution[] duals;       // dual solution of each subproblem
+
+	/**
+	 * Constructor.
+	 * @param subproblems the scenario subproblems
+	 * @param nThreads the number of worker threads, 1 solves on the calling thread
+	 * @param evaluator the pure-Java solver to use, null to always use CPLEX
+	 * @throws IloException if something makes CPLEX unhappy
+	 */
+	public SubProblemSolver(BSHSub[] subproblems, int nThreads, BSHSubEvaluator evaluator) throws IloException{
+		this.subproblems = subproblems;
+		this.evaluator = evaluator;
+		nWorkers = Math.max(1, Math.min(nThreads, subproblems.length));
+		status = new IloCplex.Status[subproblems.length];
+		objValues = new double[subproblems.length];
+		duals = new DualSolution[subproblems.length];
+
+		if(nWorkers > 1){
+			pool = Executors.newFixedThreadPool(nWorkers, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "BSHSub worker");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			// the workers already keep the cores busy
+			for(BSHSub currentSub: subproblems){
+				currentSub.sub.setParam(IloCplex.IntParam.Threads, 1);
+			}
+		}
+	}
+
+	/**
+	 * Updates all subproblems to the DC/RC selection and solves them.
+	 * @param udc DC used
+	 * @param urc RC used
+	 * @return Optimal if all subproblems are solved to optimality,
+	 *         otherwise the status of the first subproblem which is not
+	 * @throws IloException if something makes CPLEX unhappy
+	 */
+	public IloCplex.Status solve(final double[] udc, final double[] urc) throws IloException{
+		failed = false;
+		for(int index = 0; index < subproblems.length; index++){
+			status[index] = null;
+		}
+
+		if(pool == null){
+			solveBlock(0, subproblems.length, udc, urc);
+		}
+		else{
+			ArrayList<Future<Object>> futures = new ArrayList<Future<Object>>();
+			for(int w = 0; w < nWorkers; w++){
+				final int from = w * subproblems.length / nWorkers;
+				final int to = (w + 1) * subproblems.length / nWorkers;
+				futures.add(pool.submit(new Callable<Object>() {
+					@Override
+					public Object call() throws IloException {
+						solveBlock(from, to, udc, urc);
+						return null;
+					}
+				}));
+			}
+			for(Future<Object> future: futures){
+				try {
+					future.get();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IloException("interrupted while solving the subproblems");
+				} catch (ExecutionException e) {
+					if(e.getCause() instanceof IloException) throw (IloException) e.getCause();
+					throw new RuntimeException(e.getCause());
+				}
+			}
+		}
+
+		// scenarios skipped by other workers after a failure have no status
+		for(int index = 0; index < subproblems.length; index++){
+			if(status[index] != null && status[index] != IloCplex.Status.Optimal) return status[index];
+		}
+		return IloCplex.Status.Optimal;
+	}
+
+	private void solveBlock(int from, int to, double[] udc, double[] urc) throws IloException{
+		BSHSub currentSub;
+		for(int index = from; index < to && !failed; index++){
+			currentSub = subproblems[index];
+			BSHSubEvaluator.Result nativeResult = null;
+			if(evaluator != null){
+				long start = System.nanoTime();
+				nativeResult = evaluator.evaluate(currentSub.sample, udc, urc, false);
+				nativeNanos.addAndGet(System.nanoTime() - start);
+				if(nativeResult.status == IloCplex.Status.Optimal && !Environment.nativeSubCheck){
+					status[index] = nativeResult.status;
+					objValues[index] = nativeResult.objValue;
+					duals[index] = nativeResult.dual;
+					continue;
+				}
+				// infeasible selections are left to CPLEX
+			}
+			status[index] = currentSub.solve(udc, urc);
+			//if one sub problem is not optimal, the others are useless
+			if(status[index] != IloCplex.Status.Optimal){
+				failed = true;
+				break;
+			}
+			objValues[index] = currentSub.sub.getObjValue();
+			duals[index] = currentSub.getDualSolution();
+			if(nativeResult != null && nativeResult.status == IloCplex.Status.Optimal){
+				evaluator.check(nativeResult.objValue, objValues[index], "scenario " + index);
+			}
+		}
+	}
+
+	/**
+	 * @return the time spent solving subproblems with the evaluator, in nanoseconds
+	 */
+	public long getNativeNanos(){
+		return nativeNanos.get();
+	}
+
+	/**
+	 * Stops the worker threads.
+	 */
+	public void shutdown(){
+		if(pool != null) pool.shutdownNow();
+	}
+}
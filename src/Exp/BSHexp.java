@@ -22,15 +22,17 @@ public class BSHexp {
 			return;
 		}
 
+		if ( args.length == 6 )  inputFileName = args[5];
+
 		if(args.length >=2){
 			try {
 				citysize = Integer.parseInt(args[0]);
-				if(citysize<=0 || citysize >40){
+				if(citysize<=0 || citysize > Environment.getMaxSize(inputFileName)){
 					usage();
 					return;
 				}
 				facilitySize = Integer.parseInt(args[1]);
-				if(facilitySize<=0 || facilitySize >40){
+				if(facilitySize<=0 || facilitySize > Environment.getMaxSize(inputFileName)){
 					usage();
 					return;
 				}
@@ -53,7 +55,6 @@ public class BSHexp {
 			}
 		}
 
-		if ( args.length == 6 )  inputFileName = args[5];
 
 		/*
 		 * init the environment
@@ -76,7 +77,8 @@ public class BSHexp {
 						Environment.minReturns[i],Environment.medianReturns[i],Environment.maxReturns[i],
 						Environment.minRates[i],Environment.medianRates[i],Environment.maxRates[i],
 						out);  
-				task.run();
+				if(Environment.gapTarget > 0 && Nprim > 0) task.runAdaptive(Environment.gapTarget);
+				else task.run();
 				out.close();
 			} catch (IloException ex) {
 				System.err.println("\n!!!Unable to solve the BSH model:\n"
@@ -96,9 +98,9 @@ public class BSHexp {
 
 	public static void usage() {
 		System.out.println("*** Usage: java BSHSB [citysize] [facilitySize] [filename]");
-		System.out.println(" citysize: the size of the city range in [1,40]");
+		System.out.println(" citysize: the size of the city range in [1,40], any size for a synthetic instance");
 		System.out.println("           Size 3 is used if no citysize is provided.");
-		System.out.println(" facilitySize: the size of the facility range in [1,40]");
+		System.out.println(" facilitySize: the size of the facility range in [1,40], any size for a synthetic instance");
 		System.out.println("           Size 3 is used if no facilitySize is provided.");
 		System.out.println(" M: the size of the samples");
 		System.out.println("           Size 1 is used if no M is provided.");
@@ -108,5 +110,6 @@ public class BSHexp {
 		System.out.println("           Size 1 is used if no Nprim is provided.");
 		System.out.println(" Input: BSH instance file name.");
 		System.out.println("           File dat/sales data.xlsx is used if no name is provided.");
+		System.out.println("           synthetic:<seed> generates an instance of any size.");
 	}  
 }
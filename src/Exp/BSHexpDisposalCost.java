@@ -11,11 +11,16 @@ import java.io.PrintStream;
 import java.util.ArrayList;
 
 import utils.Environment;
+import utils.ModelContext;
 import utils.Monitor;
 import BSH.BSHTask;
+import BSH.DisposalCostSweep;
 
 /*
  * read 100 disposal cost from file commodity price and save maxval, maxvar, finalUseDC, finalUseRC
+ * with Environment.warmSweep, the step one models of the first price are kept and warm started
+ * from the selection of the previous price
+ * with Environment.bisectSweep (and Nprim > 0), step one is only run where the selection changes
  */
 public class BSHexpDisposalCost {
 	public static void main(String args[]){
@@ -30,15 +35,17 @@ public class BSHexpDisposalCost {
 			return;
 		}
 
+		if ( args.length == 6 )  inputFileName = args[5];
+
 		if(args.length >=2){
 			try {
 				citysize = Integer.parseInt(args[0]);
-				if(citysize<=0 || citysize >40){
+				if(citysize<=0 || citysize > Environment.getMaxSize(inputFileName)){
 					usage();
 					return;
 				}
 				facilitySize = Integer.parseInt(args[1]);
-				if(facilitySize<=0 || facilitySize >40){
+				if(facilitySize<=0 || facilitySize > Environment.getMaxSize(inputFileName)){
 					usage();
 					return;
 				}
@@ -61,7 +68,6 @@ public class BSHexpDisposalCost {
 			}
 		}
 
-		if ( args.length == 6 )  inputFileName = args[5];
 
 		/*
 		 * init the environment
@@ -89,6 +95,7 @@ public class BSHexpDisposalCost {
 			}
 		}
 		
+		ModelContext context = ModelContext.fromEnvironment();
 		long start = 0, end = 0;
 		/*
 		 * Now build and solve a model using Benders decomposition.
@@ -96,23 +103,45 @@ public class BSHexpDisposalCost {
 		String outFileName  = "out/"+citysize+"_"+facilitySize+"_"+M+"_"+N + "_" + Nprim +".txt";
 		try {
 			PrintStream out = new PrintStream(new FileOutputStream(outFileName));
-//			for(int i = 0 ; i < 2; i++){
-			for(int i = 0; i < priceList.size(); i++){
-				//		for(int i = 0 ; i < 1; i++){
+			BSHTask task = null;
+			if(Environment.bisectSweep && Nprim > 0 && !priceList.isEmpty()){
 				start = System.currentTimeMillis();
-
-				Environment.disposalCost = priceList.get(i);
-				BSHTask task = new BSHTask(M,N,Nprim,
+				task = new BSHTask(context.withDisposalCost(priceList.get(0)), M,N,Nprim,
 						Environment.minMarkets[0],Environment.medianMarkets[0],Environment.maxMarkets[0],
 						Environment.minReturns[0],Environment.medianReturns[0],Environment.maxReturns[0],
 						Environment.minRates[0],Environment.medianRates[0],Environment.maxRates[0],
 						out);  
-				task.run();
-
+				if(Environment.warmSweep) task.keepModels();
+				new DisposalCostSweep(task, priceList).run(out);
 				end = System.currentTimeMillis();
-				System.out.println("BSH SAA time = " + (end - start) + "ms\n");
-				Monitor.runGC();
+				System.out.println("BSH SAA sweep time = " + (end - start) + "ms\n");
+			}
+			else{
+//				for(int i = 0 ; i < 2; i++){
+				for(int i = 0; i < priceList.size(); i++){
+					//		for(int i = 0 ; i < 1; i++){
+					start = System.currentTimeMillis();
+
+					if(task == null || !Environment.warmSweep){
+						task = new BSHTask(context.withDisposalCost(priceList.get(i)), M,N,Nprim,
+								Environment.minMarkets[0],Environment.medianMarkets[0],Environment.maxMarkets[0],
+								Environment.minReturns[0],Environment.medianReturns[0],Environment.maxReturns[0],
+								Environment.minRates[0],Environment.medianRates[0],Environment.maxRates[0],
+								out);  
+						if(Environment.warmSweep) task.keepModels();
+					}
+					else{
+						task.setDisposalCost(priceList.get(i));
+					}
+					if(Environment.gapTarget > 0 && Nprim > 0) task.runAdaptive(Environment.gapTarget);
+					else task.run();
+
+					end = System.currentTimeMillis();
+					System.out.println("BSH SAA time = " + (end - start) + "ms\n");
+					Monitor.runGC();
+				}
 			}
+			if(task != null) task.clear();
 			out.close();
 		} catch (IloException ex) {
 			System.err.println("\n!!!Unable to solve the BSH model:\n"
@@ -127,9 +156,9 @@ public class BSHexpDisposalCost {
 
 	public static void usage() {
 		System.out.println("*** Usage: java BSHSB [citysize] [facilitySize] [filename]");
-		System.out.println(" citysize: the size of the city range in [1,40]");
+		System.out.println(" citysize: the size of the city range in [1,40], any size for a synthetic instance");
 		System.out.println("           Size 3 is used if no citysize is provided.");
-		System.out.println(" facilitySize: the size of the facility range in [1,40]");
+		System.out.println(" facilitySize: the size of the facility range in [1,40], any size for a synthetic instance");
 		System.out.println("           Size 3 is used if no facilitySize is provided.");
 		System.out.println(" M: the size of the samples");
 		System.out.println("           Size 1 is used if no M is provided.");
@@ -139,5 +168,6 @@ public class BSHexpDisposalCost {
 		System.out.println("           Size 1 is used if no Nprim is provided.");
 		System.out.println(" Input: BSH instance file name.");
 		System.out.println("           File dat/sales data.xlsx is used if no name is provided.");
+		System.out.println("           synthetic:<seed> generates an instance of any size.");
 	}  
 }
@@ -31,9 +31,11 @@ public class BSHrunner {
 			return;
 		}
 		int citysize = -1; //the size of the CLSC problem
+		if ( args.length == 2 )  inputFileName = args[1];
+
 		try {
 			citysize = Integer.parseInt(args[0]);
-			if(citysize<=0 || citysize >40){
+			if(citysize<=0 || citysize > Environment.getMaxSize(inputFileName)){
 				usage();
 				return;
 			}
@@ -43,7 +45,6 @@ public class BSHrunner {
 			return;
 		}
 
-		if ( args.length == 2 )  inputFileName = args[1];
 
 
 		Environment.init(citysize, citysize, inputFileName);
@@ -81,10 +82,11 @@ public class BSHrunner {
 
 	public static void usage() {
 		System.out.println("*** Usage: java BSH [citysize] [filename]");
-		System.out.println(" citysize: the size of the CLSC problem range in [1,40]");
+		System.out.println(" citysize: the size of the CLSC problem range in [1,40], any size for a synthetic instance");
 		System.out.println("           Size 3 is used if no citysize is provided.");
 		System.out.println(" filename: BSH instance file name.");
 		System.out.println("           File dat/sales data.xlsx is used if no name is provided.");
+		System.out.println("           synthetic:<seed> generates an instance of any size.");
 	}  
 
 }
@@ -16,14 +16,16 @@ public class SAAGen {
 			return;
 		}
 
+		if ( args.length == 6 )  inputFileName = args[5];
+
 		if(args.length >=2){
 			try {
 				citysize = Integer.parseInt(args[0]);
-				if(citysize<=0 || citysize >40){
+				if(citysize<=0 || citysize > Environment.getMaxSize(inputFileName)){
 					return;
 				}
 				facilitySize = Integer.parseInt(args[1]);
-				if(facilitySize<=0 || facilitySize >40){
+				if(facilitySize<=0 || facilitySize > Environment.getMaxSize(inputFileName)){
 					return;
 				}
 			}
@@ -43,7 +45,6 @@ public class SAAGen {
 			}
 		}
 
-		if ( args.length == 6 )  inputFileName = args[5];
 
 		/*
 		 * init the environment
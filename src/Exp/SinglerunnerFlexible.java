@@ -31,15 +31,17 @@ public class SinglerunnerFlexible {
 			return;
 		}
 
+		if ( args.length == 3 )  inputFileName = args[2];
+
 		if(args.length >=2){
 			try {
 				citysize = Integer.parseInt(args[0]);
-				if(citysize<=0 || citysize >40){
+				if(citysize<=0 || citysize > Environment.getMaxSize(inputFileName)){
 					usage();
 					return;
 				}
 				facilitySize = Integer.parseInt(args[1]);
-				if(facilitySize<=0 || facilitySize >40){
+				if(facilitySize<=0 || facilitySize > Environment.getMaxSize(inputFileName)){
 					usage();
 					return;
 				}
@@ -50,7 +52,6 @@ public class SinglerunnerFlexible {
 			}
 		}
 
-		if ( args.length == 3 )  inputFileName = args[2];
 
 		Environment.init(citysize, facilitySize, inputFileName);
 //		SAA saa = new SAA(2383906.5*Environment.PPDensitySum,2648785*Environment.PPDensitySum,
@@ -125,12 +126,13 @@ public class SinglerunnerFlexible {
 
 	public static void usage() {
 		System.out.println("*** Usage: java BSH [citysize] [facilitySize] [filename]");
-		System.out.println(" citysize: the size of the city range in [1,40]");
+		System.out.println(" citysize: the size of the city range in [1,40], any size for a synthetic instance");
 		System.out.println("           Size 3 is used if no citysize is provided.");
-		System.out.println(" facilitySize: the size of the facility range in [1,40]");
+		System.out.println(" facilitySize: the size of the facility range in [1,40], any size for a synthetic instance");
 		System.out.println("           Size 3 is used if no facilitySize is provided.");
 		System.out.println(" filename: BSH instance file name.");
 		System.out.println("           File dat/sales data.xlsx is used if no name is provided.");
+		System.out.println("           synthetic:<seed> generates an instance of any size.");
 	}  
 
 }
@@ -37,7 +37,34 @@ public class Environment {
 	public static double[] minRates;
 	public static double[] maxRates;
 	public static double[] medianRates;
-	
+
+	//parameters for the Benders decomposition
+	public static int nSubThreads = 1;	// threads solving the scenario subproblems in the callback
+	public static int nCutClusters = 1;	// profit estimates in the master, 1 is a single averaged cut, N one cut per scenario
+	public static boolean nativeSub = false;	// solve the subproblems with BSHSubEvaluator instead of CPLEX
+	public static boolean nativeSubCheck = false;	// also solve them with CPLEX and report mismatches
+	public static int basisPoolSize = 8;	// bases kept per subproblem for warm starts, 0 to disable
+	public static int subCacheSize = 1000;	// selections whose subproblem results are cached in the callback, 0 to disable
+	public static int dualPoolSize = 50;	// duals kept per scenario to build cuts without solving, 0 to disable
+	public static int dualPoolSeeds = 5;	// pooled cuts per profit estimate added to a master seeded with a dual pool
+	public static String metricsDir = null;	// directory of a CSV time series of every Benders solve (BendersMetrics), null to disable
+
+	//parameters for the SAA task
+	public static long seed = -1;	// master seed of the SAA samples (see RandomStream), -1 for a new seed in every run
+	public static SAA.Sampling sampling = SAA.Sampling.MC;	// how the SAA scenarios are drawn, LHS, SOBOL and ANTITHETIC reduce the variance
+	public static int nParallelReplications = 1;	// step one replications solved at the same time
+	public static int stepOneStable = 0;	// step one stops after this many replications in a row without a new selection, 0 to solve all M
+	public static double stepOneTolerance = 0.01;	// ... and if the standard deviation of the step one optima is at most this share of their mean
+	public static int nStepTwoThreads = 1;	// threads evaluating the step two candidates
+	public static int raceChunk = 500;	// samples evaluated per candidate between two racing rounds, 0 to never drop a candidate
+	public static int streamChunk = 10000;	// step two samples drawn at a time if raceChunk is 0
+	public static boolean estimateGap = false;	// estimate the optimality gap after every step two, at the cost of Nprim more evaluations
+	public static double gapZ = 1.645;	// normal quantile of the optimality gap bound, 1.645 for 95%
+	public static double gapTarget = 0;	// relative gap bound the runners grow M, N and Nprim to (BSHTask.runAdaptive), 0 to run once
+	public static int adaptiveRounds = 6;	// runs of BSHTask.runAdaptive at most
+	public static double raceZ = 3;	// width of the racing confidence intervals in standard errors, 0 to never drop a candidate
+	public static boolean warmSweep = false;	// BSHexpDisposalCost keeps the step one models between the prices and warm starts them
+	public static boolean bisectSweep = false;	// BSHexpDisposalCost runs step one only where the selection changes (DisposalCostSweep)
 
 
 	public static void init(int citysize, int facilitySize, String fileName){
@@ -59,7 +86,21 @@ public class Environment {
 		flowCost_customers_RC = new double[citysize][facilitySize];
 		flowCost_RC_plant = new double [facilitySize];
 		
-		ExcelHandler handler = new ExcelHandler(fileName);
+		String SAAFileName = "dat/strategic analysis.xls";
+		if(InstanceGenerator.isSynthetic(fileName)){
+			// the facility candidates are the generated sites, there is no pool to select from
+			selectedFacilities = new Integer[facilitySize];
+			for (int i = 0; i < facilitySize; i++) {
+				selectedFacilities[i] = i + 1;
+			}
+			InstanceGenerator.generate(InstanceGenerator.getSeed(fileName), citysize, facilitySize);
+			readSAAParameters(SAAFileName);
+			PPDensitySum = MatrixHelper.sum(PPDensity1);
+			PPDensity = MatrixHelper.divide(PPDensity1, PPDensitySum);
+			System.out.println("synthetic instance " + fileName + ": " + citysize + " cities, " + facilitySize + " facilities");
+			return;
+		}
+		
 		//randomly generate facility candidates:
 		Random r = new Random();
 //		HashSet<Integer> fixedFacilities = new HashSet<Integer>();
@@ -96,9 +137,40 @@ public class Environment {
 //				selectedFacilities[i] = facilityCandidates.get(index);
 //				facilityCandidates.remove(index);
 //			}
-			System.out.print("slected facilities: ");
+		}
+		else{
+			facilityCandidates.toArray(selectedFacilities);
+		}
+		System.out.print("slected facilities: ");
+		for (int i = 0; i < facilitySize; i++) {
+			System.out.print(selectedFacilities[i]+" ");
+		}
+		System.out.println();
+		
+		InstanceCache cache = new InstanceCache(fileName, SAAFileName, citysize, facilitySize, selectedFacilities);
+		if(!cache.load()){
+			readInstance(citysize, facilitySize, fileName, SAAFileName);
+			cache.save();
+		}
+		
+		PPDensitySum = MatrixHelper.sum(PPDensity1);
+		PPDensity = MatrixHelper.divide(PPDensity1, PPDensitySum);
+	}
+
+	/**
+	 * @return the largest city or facility size an instance file provides
+	 */
+	public static int getMaxSize(String fileName){
+		return InstanceGenerator.isSynthetic(fileName) ? Integer.MAX_VALUE : POOLSIZE;
+	}
+
+	/*
+	 * read the instance from the excel files, the slow path of init
+	 */
+	private static void readInstance(int citysize, int facilitySize, String fileName, String SAAFileName){
+		ExcelHandler handler = new ExcelHandler(fileName);
+		if(facilitySize< POOLSIZE) {
 		    for (int i = 0; i < facilitySize; i++) {
-		    	System.out.print(selectedFacilities[i]+" ");
 		    	fixedCostDC[i] = handler.xlsread("Sheet1", 3,  3 + selectedFacilities[i]);
 		    	fixedCostRC[i] = handler.xlsread("Sheet1", 5,  3 + selectedFacilities[i]);
 		    	flowCost_plant_DC[i] = handler.xlsread("distance", 11, selectedFacilities[i]);
@@ -110,15 +182,8 @@ public class Environment {
 		    	}
 		    	flowCost_RC_plant[i] = 2.5 * handler.xlsread("distance", 11, selectedFacilities[i]);
 		    }
-		    System.out.println();
 		}
 		else{
-			facilityCandidates.toArray(selectedFacilities);
-			System.out.print("slected facilities: ");
-		    for (int i = 0; i < facilitySize; i++) {
-		    	System.out.print(selectedFacilities[i]+" ");
-		    }
-		    System.out.println();
 			fixedCostDC = handler.xlsread("Sheet1", 3, 4, 3 + facilitySize);
 	    	fixedCostRC = handler.xlsread("Sheet1", 5, 4, 3 + facilitySize);
 	    	flowCost_plant_DC = handler.xlsread("distance", 11, 1, facilitySize);
@@ -129,13 +194,15 @@ public class Environment {
 		
 				
 		PPDensity1 = handler.xlsread("Sheet1", 0, 4, 3 + citysize);
-		PPDensitySum = MatrixHelper.sum(PPDensity1);
-		PPDensity = MatrixHelper.divide(PPDensity1, PPDensitySum);
 		manCapacity = MatrixHelper.sum(PPDensity1) * handler.xlsread("Sheet1", 1, 0);
 		remanCapacity = MatrixHelper.sum(PPDensity1) * handler.xlsread("Sheet1", 1, 1);
 		handler.close();
 		
-		//read parameters for SAA
+		readSAAParameters(SAAFileName);
+	}
+
+	//read parameters for SAA
+	private static void readSAAParameters(String SAAFileName){
 		minMarkets = new double[17];
 		maxMarkets = new double[17];
 		medianMarkets = new double[17];
@@ -146,7 +213,6 @@ public class Environment {
 		maxRates = new double[17];
 		medianRates = new double[17];
 			
-		String SAAFileName = "dat/strategic analysis.xls";
 		ExcelHandler handlerSAA = new ExcelHandler(SAAFileName);
 		
 		for(int i = 0; i<17; i++){
@@ -0,0 +1,188 @@
+package utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Compiled form of the instance Environment.init reads from the excel files:
+ * the costs, densities and capacities of the selected facilities and the SAA
+ * parameters, in one binary file next to the instance file. The file is
+ * memory-mapped on load, so a run only reads the spreadsheets once per city
+ * size and facility selection.
+ *
+ * The header records the size, the selection and the length and last
+ * modification time of both excel files; if any of them differs, the cache
+ * is stale and init reads the excel files again and rewrites it.
+ * @author Zhao Feng
+ *
+ */
+public class InstanceCache {
+	private static final int MAGIC = 0x42534849;   // "BSHI"
+	private static final int VERSION = 1;
+
+	private File cacheFile;
+	private String key;   // everything the cached values depend on
+
+	public InstanceCache(String fileName, String SAAFileName, int citysize, int facilitySize, Integer[] selectedFacilities){
+		StringBuilder sb = new StringBuilder();
+		sb.append(citysize).append(' ').append(facilitySize).append(' ');
+		sb.append(Arrays.toString(selectedFacilities));
+		for(String source: new String[]{fileName, SAAFileName}){
+			File file = new File(source);
+			sb.append(' ').append(file.getAbsolutePath());
+			sb.append(' ').append(file.length()).append(' ').append(file.lastModified());
+		}
+		key = sb.toString();
+		cacheFile = new File(fileName + "." + citysize + "_" + facilitySize + "_"
+				+ Integer.toHexString(Arrays.hashCode(selectedFacilities)) + ".bin");
+	}
+
+	public File getFile(){
+		return cacheFile;
+	}
+
+	/**
+	 * Loads the cached instance into Environment.
+	 * @return false if there is no cache file or it is stale
+	 */
+	public boolean load(){
+		if(!cacheFile.isFile()) return false;
+		RandomAccessFile file = null;
+		try {
+			file = new RandomAccessFile(cacheFile, "r");
+			FileChannel channel = file.getChannel();
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if(buffer.getInt() != MAGIC || buffer.getInt() != VERSION) return false;
+			byte[] keyBytes = new byte[buffer.getInt()];
+			buffer.get(keyBytes);
+			if(!key.equals(new String(keyBytes, "UTF-8"))) return false;
+
+			Environment.manCapacity = buffer.getDouble();
+			Environment.remanCapacity = buffer.getDouble();
+			Environment.fixedCostDC = readArray(buffer);
+			Environment.fixedCostRC = readArray(buffer);
+			Environment.flowCost_plant_DC = readArray(buffer);
+			Environment.flowCost_RC_plant = readArray(buffer);
+			Environment.flowCost_DC_customers = readMatrix(buffer);
+			Environment.flowCost_customers_RC = readMatrix(buffer);
+			Environment.PPDensity1 = readArray(buffer);
+
+			Environment.minMarkets = readArray(buffer);
+			Environment.medianMarkets = readArray(buffer);
+			Environment.maxMarkets = readArray(buffer);
+			Environment.minReturns = readArray(buffer);
+			Environment.medianReturns = readArray(buffer);
+			Environment.maxReturns = readArray(buffer);
+			Environment.minRates = readArray(buffer);
+			Environment.medianRates = readArray(buffer);
+			Environment.maxRates = readArray(buffer);
+			return true;
+		} catch (Exception e) {
+			// a truncated or otherwise unreadable cache is rebuilt
+			System.err.println("cannot read the instance cache " + cacheFile + ": " + e);
+			return false;
+		} finally {
+			closeQuietly(file);
+		}
+	}
+
+	/**
+	 * Writes the instance in Environment to the cache file. The file is
+	 * written under a temporary name first, so a concurrent run never maps a
+	 * partial file.
+	 */
+	public void save(){
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			byte[] keyBytes = key.getBytes("UTF-8");
+			out.writeInt(keyBytes.length);
+			out.write(keyBytes);
+
+			out.writeDouble(Environment.manCapacity);
+			out.writeDouble(Environment.remanCapacity);
+			writeArray(out, Environment.fixedCostDC);
+			writeArray(out, Environment.fixedCostRC);
+			writeArray(out, Environment.flowCost_plant_DC);
+			writeArray(out, Environment.flowCost_RC_plant);
+			writeMatrix(out, Environment.flowCost_DC_customers);
+			writeMatrix(out, Environment.flowCost_customers_RC);
+			writeArray(out, Environment.PPDensity1);
+
+			writeArray(out, Environment.minMarkets);
+			writeArray(out, Environment.medianMarkets);
+			writeArray(out, Environment.maxMarkets);
+			writeArray(out, Environment.minReturns);
+			writeArray(out, Environment.medianReturns);
+			writeArray(out, Environment.maxReturns);
+			writeArray(out, Environment.minRates);
+			writeArray(out, Environment.medianRates);
+			writeArray(out, Environment.maxRates);
+			out.flush();
+
+			File tmp = File.createTempFile(cacheFile.getName(), ".tmp", cacheFile.getAbsoluteFile().getParentFile());
+			FileOutputStream fos = new FileOutputStream(tmp);
+			try {
+				bytes.writeTo(fos);
+			} finally {
+				fos.close();
+			}
+			if(!tmp.renameTo(cacheFile)){
+				cacheFile.delete();
+				if(!tmp.renameTo(cacheFile)){
+					tmp.delete();
+					System.err.println("cannot write the instance cache " + cacheFile);
+				}
+			}
+		} catch (IOException e) {
+			// the cache only saves time, the run goes on without it
+			System.err.println("cannot write the instance cache " + cacheFile + ": " + e);
+		}
+	}
+
+	private static double[] readArray(MappedByteBuffer buffer){
+		double[] values = new double[buffer.getInt()];
+		buffer.asDoubleBuffer().get(values);
+		buffer.position(buffer.position() + 8 * values.length);
+		return values;
+	}
+
+	private static double[][] readMatrix(MappedByteBuffer buffer){
+		double[][] values = new double[buffer.getInt()][];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = readArray(buffer);
+		}
+		return values;
+	}
+
+	private static void writeArray(DataOutputStream out, double[] values) throws IOException{
+		out.writeInt(values.length);
+		for(double value: values){
+			out.writeDouble(value);
+		}
+	}
+
+	private static void writeMatrix(DataOutputStream out, double[][] values) throws IOException{
+		out.writeInt(values.length);
+		for(double[] row: values){
+			writeArray(out, row);
+		}
+	}
+
+	private static void closeQuietly(RandomAccessFile file){
+		if(file == null) return;
+		try {
+			file.close();
+		} catch (IOException e) {
+		}
+	}
+}
@@ -0,0 +1,137 @@
+package utils;
+
+import java.util.Random;
+
+/**
+ * Seeded generator of synthetic instances of any size, used by
+ * Environment.init for a file name "synthetic:<seed>".
+ *
+ * Customers are spread around a few cluster centres in the unit square,
+ * the cluster weights and the customer densities are skewed as the city
+ * sizes of the excel instances. The facility candidates are located at
+ * customers, the plant at the centre of the heaviest cluster. All flow
+ * costs are proportional to the euclidean distance, returns cost 2.5 times
+ * as much as forward flows, as in Environment. The magnitudes (transport
+ * costs up to about 25, fixed costs around 400000, densities summing to 1
+ * per 40 customers, capacity 1e7 per unit of density) follow dat/Giengen.xls.
+ * @author Zhao Feng
+ *
+ */
+public class InstanceGenerator {
+	public static final String PREFIX = "synthetic:";
+
+	private static final int CUSTOMERS_PER_CLUSTER = 20;
+	private static final double CLUSTER_SPREAD = 0.08;   // standard deviation of a customer around its centre
+	private static final double COST_PER_DISTANCE = 18;   // unit flow cost per unit of distance
+	private static final double RETURN_COST_FACTOR = 2.5;
+	private static final double FIXED_COST = 400000;   // mean fixed cost of a DC or RC
+	private static final double FIXED_COST_SPREAD = 0.25;   // fixed costs are uniform in FIXED_COST * (1 +- spread)
+	private static final double DENSITY_PER_CUSTOMER = 1.0 / 40;
+	private static final double CAPACITY_PER_DENSITY = 1.0e7;
+
+	/**
+	 * @return true if the file name asks for a synthetic instance
+	 */
+	public static boolean isSynthetic(String fileName){
+		return fileName != null && fileName.startsWith(PREFIX);
+	}
+
+	/**
+	 * @return the seed of a synthetic instance file name
+	 */
+	public static long getSeed(String fileName){
+		try {
+			return Long.parseLong(fileName.substring(PREFIX.length()).trim());
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("a synthetic instance is named " + PREFIX + "<seed>, not " + fileName);
+		}
+	}
+
+	/**
+	 * Generates an instance into Environment: capacities, fixed costs, flow
+	 * costs and the un-normalised densities PPDensity1. The same seed and
+	 * sizes always give the same instance.
+	 */
+	public static void generate(long seed, int citysize, int facilitySize){
+		Random r = new Random(seed);
+
+		// cluster centres and weights
+		int nClusters = Math.max(1, (citysize + CUSTOMERS_PER_CLUSTER - 1) / CUSTOMERS_PER_CLUSTER);
+		double[][] centres = new double[nClusters][2];
+		double[] clusterWeights = new double[nClusters];
+		for (int k = 0; k < nClusters; k++) {
+			centres[k][0] = 0.1 + 0.8 * r.nextDouble();
+			centres[k][1] = 0.1 + 0.8 * r.nextDouble();
+			clusterWeights[k] = 1.0 / (k + 1);   // Zipf, cluster 0 is the heaviest
+		}
+
+		// customers
+		double[][] customers = new double[citysize][2];
+		double[] density = new double[citysize];
+		for (int j = 0; j < citysize; j++) {
+			int k = pick(r, clusterWeights);
+			customers[j][0] = clamp(centres[k][0] + CLUSTER_SPREAD * r.nextGaussian());
+			customers[j][1] = clamp(centres[k][1] + CLUSTER_SPREAD * r.nextGaussian());
+			density[j] = clusterWeights[k] * Math.exp(0.75 * r.nextGaussian());
+		}
+		double densityScale = DENSITY_PER_CUSTOMER * citysize / MatrixHelper.sum(density);
+		for (int j = 0; j < citysize; j++) {
+			density[j] *= densityScale;
+		}
+
+		// facility candidates at distinct customers, the plant at the heaviest centre
+		int[] sites = new int[citysize];
+		for (int j = 0; j < citysize; j++) {
+			sites[j] = j;
+		}
+		for (int i = 0; i < facilitySize; i++) {
+			int swap = i + r.nextInt(citysize - i);
+			int site = sites[swap];
+			sites[swap] = sites[i];
+			sites[i] = site;
+		}
+		double[] plant = centres[0];
+
+		Environment.fixedCostDC = new double[facilitySize];
+		Environment.fixedCostRC = new double[facilitySize];
+		Environment.flowCost_plant_DC = new double[facilitySize];
+		Environment.flowCost_RC_plant = new double[facilitySize];
+		Environment.flowCost_DC_customers = new double[facilitySize][citysize];
+		Environment.flowCost_customers_RC = new double[citysize][facilitySize];
+		for (int i = 0; i < facilitySize; i++) {
+			double[] site = customers[sites[i]];
+			Environment.fixedCostDC[i] = FIXED_COST * (1 + FIXED_COST_SPREAD * (2 * r.nextDouble() - 1));
+			Environment.fixedCostRC[i] = FIXED_COST * (1 + FIXED_COST_SPREAD * (2 * r.nextDouble() - 1));
+			Environment.flowCost_plant_DC[i] = COST_PER_DISTANCE * distance(plant, site);
+			Environment.flowCost_RC_plant[i] = RETURN_COST_FACTOR * Environment.flowCost_plant_DC[i];
+			for (int j = 0; j < citysize; j++) {
+				double cost = COST_PER_DISTANCE * distance(site, customers[j]);
+				Environment.flowCost_DC_customers[i][j] = cost;
+				Environment.flowCost_customers_RC[j][i] = RETURN_COST_FACTOR * cost;
+			}
+		}
+
+		Environment.PPDensity1 = density;
+		Environment.manCapacity = MatrixHelper.sum(density) * CAPACITY_PER_DENSITY;
+		Environment.remanCapacity = MatrixHelper.sum(density) * CAPACITY_PER_DENSITY;
+	}
+
+	private static int pick(Random r, double[] weights){
+		double u = r.nextDouble() * MatrixHelper.sum(weights);
+		for (int k = 0; k < weights.length - 1; k++) {
+			u -= weights[k];
+			if(u < 0) return k;
+		}
+		return weights.length - 1;
+	}
+
+	private static double clamp(double x){
+		return Math.max(0, Math.min(1, x));
+	}
+
+	private static double distance(double[] a, double[] b){
+		double dx = a[0] - b[0];
+		double dy = a[1] - b[1];
+		return Math.sqrt(dx * dx + dy * dy);
+	}
+}
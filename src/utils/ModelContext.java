@@ -0,0 +1,99 @@
+package utils;
+
+/**
+ * The data of one problem instance: sizes, capacities, costs and densities,
+ * and the disposal cost, which the experiments vary. BSH, BSHSub, BSHNPrim,
+ * BSHSubEvaluator, SingleModel and BSHTask take it explicitly, so several
+ * instances or disposal costs can be solved in one JVM at the same time.
+ *
+ * A context is immutable: the arrays are copied on construction and must
+ * not be modified by the models which receive them; withDisposalCost
+ * returns a new context sharing the arrays.
+ *
+ * The solver settings (threads, cache and pool sizes) are not instance data
+ * and stay in Environment.
+ * @author Zhao Feng
+ *
+ */
+public final class ModelContext {
+	public final int nDC, nRC, nCustomers;
+	public final double manCapacity, remanCapacity;
+	public final double[] fixedCostDC, fixedCostRC;
+	public final double[] PPDensity;   // normalised, sums to 1
+	public final double PPDensitySum;   // sum of the raw densities, scales the SAA market sizes and returns
+	public final double[] flowCost_plant_DC, flowCost_RC_plant;
+	public final double[][] flowCost_DC_customers, flowCost_customers_RC;
+	public final double disposalCost;
+
+	public ModelContext(int nDC, int nRC, int nCustomers, double manCapacity, double remanCapacity,
+			double[] fixedCostDC, double[] fixedCostRC, double[] PPDensity, double PPDensitySum,
+			double[] flowCost_plant_DC, double[][] flowCost_DC_customers,
+			double[][] flowCost_customers_RC, double[] flowCost_RC_plant, double disposalCost){
+		this.nDC = nDC;
+		this.nRC = nRC;
+		this.nCustomers = nCustomers;
+		this.manCapacity = manCapacity;
+		this.remanCapacity = remanCapacity;
+		this.fixedCostDC = fixedCostDC.clone();
+		this.fixedCostRC = fixedCostRC.clone();
+		this.PPDensity = PPDensity.clone();
+		this.PPDensitySum = PPDensitySum;
+		this.flowCost_plant_DC = flowCost_plant_DC.clone();
+		this.flowCost_DC_customers = copy(flowCost_DC_customers);
+		this.flowCost_customers_RC = copy(flowCost_customers_RC);
+		this.flowCost_RC_plant = flowCost_RC_plant.clone();
+		this.disposalCost = disposalCost;
+	}
+
+	// shares the arrays of an existing context
+	private ModelContext(ModelContext other, double disposalCost){
+		nDC = other.nDC;
+		nRC = other.nRC;
+		nCustomers = other.nCustomers;
+		manCapacity = other.manCapacity;
+		remanCapacity = other.remanCapacity;
+		fixedCostDC = other.fixedCostDC;
+		fixedCostRC = other.fixedCostRC;
+		PPDensity = other.PPDensity;
+		PPDensitySum = other.PPDensitySum;
+		flowCost_plant_DC = other.flowCost_plant_DC;
+		flowCost_DC_customers = other.flowCost_DC_customers;
+		flowCost_customers_RC = other.flowCost_customers_RC;
+		flowCost_RC_plant = other.flowCost_RC_plant;
+		this.disposalCost = disposalCost;
+	}
+
+	/**
+	 * @return a snapshot of the instance Environment.init loaded
+	 */
+	public static ModelContext fromEnvironment(){
+		return new ModelContext(Environment.nDC, Environment.nRC, Environment.nCustomers,
+				Environment.manCapacity, Environment.remanCapacity,
+				Environment.fixedCostDC, Environment.fixedCostRC, Environment.PPDensity, Environment.PPDensitySum,
+				Environment.flowCost_plant_DC, Environment.flowCost_DC_customers,
+				Environment.flowCost_customers_RC, Environment.flowCost_RC_plant, Environment.disposalCost);
+	}
+
+	/**
+	 * @return the same instance with another disposal cost
+	 */
+	public ModelContext withDisposalCost(double disposalCost){
+		return new ModelContext(this, disposalCost);
+	}
+
+	/**
+	 * @return the linear objective coefficient of the remanufactured quantity
+	 */
+	public double getRemanA(){
+		return Environment.remanDepreciation * Environment.reservationPriceUB -
+				Environment.remanCost - Environment.holdingCost + disposalCost;
+	}
+
+	private static double[][] copy(double[][] values){
+		double[][] result = new double[values.length][];
+		for (int i = 0; i < values.length; i++) {
+			result[i] = values[i].clone();
+		}
+		return result;
+	}
+}
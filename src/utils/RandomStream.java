@@ -0,0 +1,85 @@
+package utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A seedable, splittable stream of random numbers (the SplitMix64 generator
+ * of java.util.SplittableRandom). A stream is not thread safe; every thread
+ * or every sample set gets its own stream, split from a parent stream, so
+ * the numbers do not depend on the order or the threads they are drawn in
+ * and one master seed reproduces a whole run.
+ * @author Zhao Feng
+ *
+ */
+public final class RandomStream {
+	private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+	private static final AtomicLong seeds = new AtomicLong(System.nanoTime());
+
+	private long seed;
+	private final long gamma;   // odd increment of the seed
+
+	public RandomStream(long seed){
+		this(seed, GOLDEN_GAMMA);
+	}
+
+	private RandomStream(long seed, long gamma){
+		this.seed = seed;
+		this.gamma = gamma;
+	}
+
+	/**
+	 * @return a seed which differs in every call and every run
+	 */
+	public static long randomSeed(){
+		return mix64(seeds.addAndGet(GOLDEN_GAMMA) ^ System.nanoTime());
+	}
+
+	public long nextLong(){
+		return mix64(seed += gamma);
+	}
+
+	/**
+	 * @return a double uniformly distributed in [0, 1)
+	 */
+	public double nextDouble(){
+		return (nextLong() >>> 11) * 0x1.0p-53;
+	}
+
+	/**
+	 * @return an int uniformly distributed in [0, bound)
+	 */
+	public int nextInt(int bound){
+		return (int)(nextDouble() * bound);
+	}
+
+	/**
+	 * @return a new stream, independent of this one, which advances
+	 */
+	public RandomStream split(){
+		return new RandomStream(nextLong(), mixGamma(nextLong()));
+	}
+
+	/**
+	 * The stream number index of this one, which does not advance: the same
+	 * index always gives the same stream, whatever was drawn before.
+	 * @return a stream independent of this one and of the other indices
+	 */
+	public RandomStream substream(long index){
+		long base = seed + 2 * index * gamma;
+		return new RandomStream(mix64(base + gamma), mixGamma(base + 2 * gamma));
+	}
+
+	private static long mix64(long z){
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+	private static long mixGamma(long z){
+		z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+		z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+		z = (z ^ (z >>> 33)) | 1L;
+		int n = Long.bitCount(z ^ (z >>> 1));
+		return (n < 24) ? z ^ 0xaaaaaaaaaaaaaaaaL : z;
+	}
+}
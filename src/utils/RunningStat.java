@@ -0,0 +1,58 @@
+package utils;
+
+/**
+ * Running mean and variance of a stream of values (Welford's algorithm),
+ * without storing the values. Two statistics over disjoint parts of a
+ * stream can be merged.
+ * @author Zhao Feng
+ *
+ */
+public class RunningStat {
+	private long count = 0;
+	private double mean = 0;
+	private double m2 = 0;   // sum of squared deviations from the mean
+
+	public void add(double value){
+		count++;
+		double delta = value - mean;
+		mean += delta / count;
+		m2 += delta * (value - mean);
+	}
+
+	/**
+	 * Adds the values of another statistic, as if they had been added one by one.
+	 */
+	public void merge(RunningStat other){
+		if(other.count == 0) return;
+		if(count == 0){
+			count = other.count;
+			mean = other.mean;
+			m2 = other.m2;
+			return;
+		}
+		long total = count + other.count;
+		double delta = other.mean - mean;
+		mean += delta * other.count / total;
+		m2 += other.m2 + delta * delta * count * other.count / total;
+		count = total;
+	}
+
+	public long getCount(){
+		return count;
+	}
+
+	public double getMean(){
+		return mean;
+	}
+
+	/**
+	 * @return the variance of the mean, as MatrixHelper.getVariance
+	 */
+	public double getVariance(){
+		return m2 / (count * (count - 1.0));
+	}
+
+	public double getStdDev(){
+		return Math.sqrt(getVariance());
+	}
+}
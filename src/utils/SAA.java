@@ -7,17 +7,77 @@ package utils;
  */
 
 public class SAA {
+	/**
+	 * How the (marketSize, ret, recoveryRate) triples of a sample set are drawn.
+	 * Every mode has the triangular marginals of the parameters, the sample sets
+	 * (rows) are independent of each other.
+	 */
+	public enum Sampling {
+		MC,	// independent triples
+		LHS,	// Latin hypercube: every marginal has one triple in each of N equally likely strata
+		SOBOL,	// Sobol points, randomised by a random digital shift per sample set
+		ANTITHETIC	// pairs of triples drawn from u and 1-u
+	}
+
 	private Triple[][] sampleMatrix;
 
+	// direction numbers of the first three Sobol dimensions (polynomials 1, x+1, x^2+x+1)
+	private static final int BITS = 32;
+	private static final long[][] SOBOL_DIRECTIONS = sobolDirections();
+
 	public SAA(double M_a, double M_c, double M_b, double r_a, double r_c,
 			double r_b, double alpha_a, double alpha_c, double alpha_b, int M,int N){
-		sampleMatrix = new Triple[M][N];
+		this(M_a, M_c, M_b, r_a, r_c, r_b, alpha_a, alpha_c, alpha_b, M, N, Sampling.MC);
+	}
+
+	/**
+	 * Constructor.
+	 * @param sampling how the triples of every sample set are drawn
+	 */
+	public SAA(double M_a, double M_c, double M_b, double r_a, double r_c,
+			double r_b, double alpha_a, double alpha_c, double alpha_b, int M,int N, Sampling sampling){
+		this(M_a, M_c, M_b, r_a, r_c, r_b, alpha_a, alpha_c, alpha_b, M, N, sampling,
+				new RandomStream(RandomStream.randomSeed()));
+	}
+
+	/**
+	 * Constructor for reproducible samples. Sample set i is drawn from
+	 * stream.substream(i), so it only depends on the stream and on i.
+	 * @param sampling how the triples of every sample set are drawn
+	 * @param stream the stream of all sample sets, which does not advance
+	 */
+	public SAA(double M_a, double M_c, double M_b, double r_a, double r_c,
+			double r_b, double alpha_a, double alpha_c, double alpha_b, int M,int N, Sampling sampling,
+			RandomStream stream){
+		sampleMatrix = new Triple[M][];
 		for(int i = 0; i < M; i++){
+			sampleMatrix[i] = draw(M_a, M_c, M_b, r_a, r_c, r_b, alpha_a, alpha_c, alpha_b, N, sampling,
+					stream.substream(i));
+		}
+
+	}
+
+	/**
+	 * Draws one sample set.
+	 * @param N the number of triples
+	 * @param random the stream the set is drawn from
+	 */
+	public static Triple[] draw(double M_a, double M_c, double M_b, double r_a, double r_c,
+			double r_b, double alpha_a, double alpha_c, double alpha_b, int N, Sampling sampling,
+			RandomStream random){
+		Triple[] samples = new Triple[N];
+		if(sampling == Sampling.MC){
 			for(int j = 0; j < N; j++){
-				sampleMatrix[i][j] =  createTriple(M_a, M_c, M_b, r_a, r_c, r_b, alpha_a,alpha_c,alpha_b);
+				samples[j] =  createTriple(M_a, M_c, M_b, r_a, r_c, r_b, alpha_a,alpha_c,alpha_b, random);
 			}
+			return samples;
 		}
-
+		double[][] u = uniforms(sampling, N, random);
+		for(int j = 0; j < N; j++){
+			samples[j] = new Triple(triangular(M_a, M_c, M_b, u[j][0]),
+					triangular(r_a, r_c, r_b, u[j][1]), triangular(alpha_a, alpha_c, alpha_b, u[j][2]));
+		}
+		return samples;
 	}
 	
 	public Triple getSample(int row, int col){
@@ -34,18 +94,118 @@ public class SAA {
 		return sampleMatrix[row];
 	}
 
-	private Triple createTriple(double M_a, double M_c, double M_b, double r_a,
+	private static Triple createTriple(double M_a, double M_c, double M_b, double r_a,
 			double r_c, double r_b, double alpha_a, double alpha_c,
-			double alpha_b) {
-		double M = trand(M_a, M_c, M_b);
-		double r = trand(r_a, r_c, r_b);
-		double alpha = trand(alpha_a, alpha_c, alpha_b);
+			double alpha_b, RandomStream random) {
+		double M = trand(M_a, M_c, M_b, random);
+		double r = trand(r_a, r_c, r_b, random);
+		double alpha = trand(alpha_a, alpha_c, alpha_b, random);
 
 		return new Triple(M, r, alpha);
 	}
 
-	private double trand(double a, double c, double b) {
-		double sample = c+Math.sqrt(Math.random())*(a-c+Math.random()*(b-a));
+	private static double trand(double a, double c, double b, RandomStream random) {
+		double sample = c+Math.sqrt(random.nextDouble())*(a-c+random.nextDouble()*(b-a));
 		return sample;
 	}
+
+	/*
+	 * The inverse distribution function of the triangular distribution on
+	 * [a, b] with mode c, the same distribution trand draws from.
+	 */
+	static double triangular(double a, double c, double b, double u) {
+		if(b <= a) return a;
+		if(u < (c - a)/(b - a)){
+			return a + Math.sqrt(u*(b - a)*(c - a));
+		}
+		return b - Math.sqrt((1 - u)*(b - a)*(b - c));
+	}
+
+	/*
+	 * @return N points of the unit cube, one per triple, drawn as the sampling requires
+	 */
+	private static double[][] uniforms(Sampling sampling, int N, RandomStream random) {
+		double[][] u = new double[N][3];
+		switch (sampling) {
+		case LHS:
+			for(int d = 0; d < 3; d++){
+				int[] strata = permutation(N, random);
+				for(int j = 0; j < N; j++){
+					u[j][d] = (strata[j] + random.nextDouble())/N;
+				}
+			}
+			break;
+		case SOBOL:
+			long[] shift = new long[3];
+			for(int d = 0; d < 3; d++){
+				shift[d] = random.nextLong() >>> (64 - BITS);
+			}
+			long[] x = new long[3];
+			for(int j = 0; j < N; j++){
+				if(j > 0){
+					// Gray code order: the next point flips the direction of the lowest zero bit of j-1
+					int c = Long.numberOfTrailingZeros(~(long)(j - 1));
+					for(int d = 0; d < 3; d++){
+						x[d] ^= SOBOL_DIRECTIONS[d][c];
+					}
+				}
+				for(int d = 0; d < 3; d++){
+					u[j][d] = ((x[d] ^ shift[d]) + 0.5)/(1L << BITS);
+				}
+			}
+			break;
+		case ANTITHETIC:
+			for(int j = 0; j < N; j += 2){
+				for(int d = 0; d < 3; d++){
+					u[j][d] = random.nextDouble();
+					if(j + 1 < N) u[j + 1][d] = 1 - u[j][d];
+				}
+			}
+			break;
+		default:
+			for(int j = 0; j < N; j++){
+				for(int d = 0; d < 3; d++){
+					u[j][d] = random.nextDouble();
+				}
+			}
+		}
+		return u;
+	}
+
+	// a random permutation of 0..n-1
+	private static int[] permutation(int n, RandomStream random) {
+		int[] p = new int[n];
+		for(int i = 0; i < n; i++){
+			p[i] = i;
+		}
+		for(int i = n - 1; i > 0; i--){
+			int k = random.nextInt(i + 1);
+			int t = p[i];
+			p[i] = p[k];
+			p[k] = t;
+		}
+		return p;
+	}
+
+	private static long[][] sobolDirections() {
+		long[][] v = new long[3][BITS];
+		for(int k = 0; k < BITS; k++){
+			v[0][k] = 1L << (BITS - 1 - k);
+		}
+		// m_k of x+1: m_1 = 1, m_k = 2m_{k-1} ^ m_{k-1}
+		// m_k of x^2+x+1: m_1 = 1, m_2 = 3, m_k = 2m_{k-1} ^ 4m_{k-2} ^ m_{k-2}
+		long[] m2 = new long[BITS], m3 = new long[BITS];
+		m2[0] = 1;
+		m3[0] = 1;
+		m3[1] = 3;
+		for(int k = 1; k < BITS; k++){
+			m2[k] = (m2[k - 1] << 1) ^ m2[k - 1];
+			if(k > 1) m3[k] = (m3[k - 1] << 1) ^ (m3[k - 2] << 2) ^ m3[k - 2];
+		}
+		for(int k = 0; k < BITS; k++){
+			v[1][k] = m2[k] << (BITS - 1 - k);
+			v[2][k] = m3[k] << (BITS - 1 - k);
+		}
+		return v;
+	}
 }
@@ -0,0 +1,59 @@
+package utils;
+
+/**
+ * A sample set too large to be held in memory, drawn chunk by chunk when it
+ * is evaluated. Chunk k is drawn from stream.substream(k) with SAA.draw, so
+ * it can be drawn again, in any order and on any thread, and the whole set
+ * only depends on the stream. For LHS, SOBOL and ANTITHETIC sampling every
+ * chunk is stratified (or paired) on its own.
+ * @author Zhao Feng
+ *
+ */
+public class ScenarioStream {
+	private final double M_a, M_c, M_b, r_a, r_c, r_b, alpha_a, alpha_c, alpha_b;
+	private final long size;
+	private final int chunkSize;
+	private final SAA.Sampling sampling;
+	private final RandomStream stream;
+
+	/**
+	 * Constructor, the parameters of the triangular distributions are the ones of SAA.
+	 * @param size the number of triples
+	 * @param chunkSize the number of triples of every chunk but the last one
+	 * @param stream the stream of all chunks, which does not advance
+	 */
+	public ScenarioStream(double M_a, double M_c, double M_b, double r_a, double r_c,
+			double r_b, double alpha_a, double alpha_c, double alpha_b, long size, int chunkSize,
+			SAA.Sampling sampling, RandomStream stream){
+		this.M_a = M_a;
+		this.M_c = M_c;
+		this.M_b = M_b;
+		this.r_a = r_a;
+		this.r_c = r_c;
+		this.r_b = r_b;
+		this.alpha_a = alpha_a;
+		this.alpha_c = alpha_c;
+		this.alpha_b = alpha_b;
+		this.size = size;
+		this.chunkSize = chunkSize;
+		this.sampling = sampling;
+		this.stream = stream;
+	}
+
+	public long size(){
+		return size;
+	}
+
+	public int getNChunks(){
+		return (int)((size + chunkSize - 1) / chunkSize);
+	}
+
+	/**
+	 * @return the triples of chunk k
+	 */
+	public Triple[] getChunk(int k){
+		int n = (int)Math.min(chunkSize, size - (long)k * chunkSize);
+		return SAA.draw(M_a, M_c, M_b, r_a, r_c, r_b, alpha_a, alpha_c, alpha_b, n, sampling,
+				stream.substream(k));
+	}
+}